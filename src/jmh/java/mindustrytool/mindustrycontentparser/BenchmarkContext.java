@@ -0,0 +1,47 @@
+package mindustrytool.mindustrycontentparser;
+
+import java.nio.file.Path;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import mindustrytool.mindustrycontentparser.service.AssetsService;
+
+/**
+ * The application started once per benchmark fork, against the assets in
+ * {@code mindustry/core} of the working copy. Sprites are decoded into memory
+ * so no baked bundle is needed.
+ */
+public class BenchmarkContext {
+
+    private static ConfigurableApplicationContext context;
+
+    public static synchronized <T> T getBean(Class<T> type) {
+        if (context == null) {
+            context = start();
+        }
+
+        return context.getBean(type);
+    }
+
+    private static ConfigurableApplicationContext start() {
+        var assets = Path.of(System.getProperty("benchmark.assets", "mindustry/core")).toAbsolutePath();
+
+        var context = new SpringApplicationBuilder(MindustryContentParserApplication.class).run(//
+                "--server.port=0", //
+                "--app.init=false", //
+                "--app.assets.mode=memory", //
+                "--app.files.assets-folder=" + assets + "/", //
+                "--app.files.mods-folder=" + assets.resolveSibling("mods") + "/", //
+                "--app.previews.cache-folder=", //
+                "--logging.level.root=warn");
+
+        var assetsService = context.getBean(AssetsService.class);
+
+        while (!assetsService.isReady()) {
+            Thread.onSpinWait();
+        }
+
+        return context;
+    }
+}
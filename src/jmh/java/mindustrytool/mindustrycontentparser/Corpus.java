@@ -0,0 +1,214 @@
+package mindustrytool.mindustrycontentparser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Benchmark payloads under {@code src/jmh/resources/corpus}. The files are
+ * synthetic and deterministic, {@link #main(String[])} writes them again:
+ * schematics in version 1 format and maps in save version 7, with floors, ores
+ * and static walls. Maps only carry the regions the preview reads.
+ */
+public class Corpus {
+
+    public static final String[] SIZES = { "small", "medium", "huge" };
+
+    private static final int[] SCHEMATIC_SIZES = { 16, 64, 256 };
+    private static final int[] MAP_SIZES = { 64, 300, 1000 };
+
+    private static final String[] BLOCKS = { "conveyor", "titanium-conveyor", "junction", "router", "sorter", "overflow-gate", "bridge-conveyor", "copper-wall", "titanium-wall", "duo", "power-node", "battery", "solar-panel", "conduit", "liquid-router", "mender" };
+
+    // Save-local block ids are indexes into this list, 0 has to be air
+    private static final String[] CONTENT = { "air", "stone", "sand-floor", "darksand", "grass", "ice", "basalt", "shale", "ore-copper", "ore-lead", "ore-titanium", "ore-coal", "stone-wall", "sand-wall", "dune-wall", "ice-wall" };
+    private static final int FLOORS = 1, FLOOR_COUNT = 7, ORES = 8, ORE_COUNT = 4, WALLS = 12, WALL_COUNT = 4;
+
+    public static byte[] schematic(String size) {
+        return read("corpus/" + size + ".msch");
+    }
+
+    public static byte[] map(String size) {
+        return read("corpus/" + size + ".msav");
+    }
+
+    private static byte[] read(String name) {
+        try (InputStream input = Corpus.class.getClassLoader().getResourceAsStream(name)) {
+            if (input == null) {
+                throw new IllegalStateException("Missing corpus file " + name);
+            }
+
+            return input.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        var folder = Path.of(args.length > 0 ? args[0] : "src/jmh/resources/corpus");
+        Files.createDirectories(folder);
+
+        for (int i = 0; i < SIZES.length; i++) {
+            Files.write(folder.resolve(SIZES[i] + ".msch"), writeSchematic(SCHEMATIC_SIZES[i]));
+            Files.write(folder.resolve(SIZES[i] + ".msav"), writeMap(MAP_SIZES[i]));
+        }
+    }
+
+    static byte[] writeSchematic(int size) throws IOException {
+        var out = new ByteArrayOutputStream();
+        out.write("msch".getBytes(StandardCharsets.US_ASCII));
+        out.write(1);
+
+        var tiles = new ByteArrayOutputStream();
+        var tileData = new DataOutputStream(tiles);
+        int total = 0;
+
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int hash = hash(x, y, size);
+
+                // About three quarters of the area is built
+                if ((hash & 3) == 0) {
+                    continue;
+                }
+
+                tileData.writeByte((hash >>> 2) % BLOCKS.length);
+                tileData.writeInt((x << 16) | y);
+                tileData.writeByte(0); // No config
+                tileData.writeByte((hash >>> 8) & 3);
+                total++;
+            }
+        }
+
+        try (var data = new DataOutputStream(new DeflaterOutputStream(out))) {
+            data.writeShort(size);
+            data.writeShort(size);
+
+            data.writeByte(2);
+            data.writeUTF("name");
+            data.writeUTF("Benchmark " + size + "x" + size);
+            data.writeUTF("description");
+            data.writeUTF("Synthetic schematic for the benchmarks");
+
+            data.writeByte(BLOCKS.length);
+            for (var block : BLOCKS) {
+                data.writeUTF(block);
+            }
+
+            data.writeInt(total);
+            tiles.writeTo(data);
+        }
+
+        return out.toByteArray();
+    }
+
+    static byte[] writeMap(int size) throws IOException {
+        var out = new ByteArrayOutputStream();
+
+        try (var data = new DataOutputStream(new DeflaterOutputStream(out))) {
+            data.write("MSAV".getBytes(StandardCharsets.US_ASCII));
+            data.writeInt(7);
+
+            region(data, meta -> {
+                String[][] tags = { { "name", "Benchmark " + size + "x" + size }, { "author", "benchmark" }, { "description", "Synthetic map for the benchmarks" }, { "width", String.valueOf(size) }, { "height", String.valueOf(size) } };
+
+                meta.writeShort(tags.length);
+                for (var tag : tags) {
+                    meta.writeUTF(tag[0]);
+                    meta.writeUTF(tag[1]);
+                }
+            });
+
+            region(data, content -> {
+                content.writeByte(1);
+                content.writeByte(1); // ContentType.block
+                content.writeShort(CONTENT.length);
+                for (var name : CONTENT) {
+                    content.writeUTF(name);
+                }
+            });
+
+            region(data, map -> {
+                map.writeShort(size);
+                map.writeShort(size);
+
+                int area = size * size;
+
+                // Floor and ore per tile, run length encoded
+                for (int i = 0; i < area;) {
+                    int floor = floor(i % size, i / size), ore = ore(i % size, i / size);
+                    int run = 0;
+
+                    while (run < 255 && i + run + 1 < area //
+                            && floor((i + run + 1) % size, (i + run + 1) / size) == floor && ore((i + run + 1) % size, (i + run + 1) / size) == ore) {
+                        run++;
+                    }
+
+                    map.writeShort(floor);
+                    map.writeShort(ore);
+                    map.writeByte(run);
+                    i += run + 1;
+                }
+
+                // Static walls, no buildings
+                for (int i = 0; i < area;) {
+                    int wall = wall(i % size, i / size);
+                    int run = 0;
+
+                    while (run < 255 && i + run + 1 < area && wall((i + run + 1) % size, (i + run + 1) / size) == wall) {
+                        run++;
+                    }
+
+                    map.writeShort(wall);
+                    map.writeByte(0);
+                    map.writeByte(run);
+                    i += run + 1;
+                }
+            });
+        }
+
+        return out.toByteArray();
+    }
+
+    private interface RegionWriter {
+        void write(DataOutputStream data) throws IOException;
+    }
+
+    private static void region(DataOutputStream data, RegionWriter writer) throws IOException {
+        var region = new ByteArrayOutputStream();
+        writer.write(new DataOutputStream(region));
+
+        data.writeInt(region.size());
+        region.writeTo(data);
+    }
+
+    private static int floor(int x, int y) {
+        return FLOORS + hash(x >> 4, y >> 4, 1) % FLOOR_COUNT;
+    }
+
+    private static int ore(int x, int y) {
+        int hash = hash(x >> 2, y >> 2, 2);
+
+        return hash % 9 == 0 ? ORES + (hash >>> 8) % ORE_COUNT : 0;
+    }
+
+    private static int wall(int x, int y) {
+        int hash = hash(x >> 3, y >> 3, 3);
+
+        return hash % 7 == 0 ? WALLS + (hash >>> 8) % WALL_COUNT : 0;
+    }
+
+    private static int hash(int x, int y, int seed) {
+        int hash = x * 0x27d4eb2d ^ y * 0x165667b1 ^ seed * 0x9e3779b9;
+        hash ^= hash >>> 15;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+
+        return hash & Integer.MAX_VALUE;
+    }
+}
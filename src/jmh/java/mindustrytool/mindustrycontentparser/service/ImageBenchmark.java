@@ -0,0 +1,67 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import mindustrytool.mindustrycontentparser.BenchmarkContext;
+import mindustrytool.mindustrycontentparser.Corpus;
+import mindustrytool.mindustrycontentparser.utils.DrawBatch;
+import mindustrytool.mindustrycontentparser.utils.RenderContext;
+import mindustrytool.mindustrycontentparser.utils.Utils;
+
+/** Sprite recoloring and encoding of rendered corpus schematics */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageBenchmark {
+
+    @Param({ "small", "medium" })
+    public String size;
+
+    private DrawBatch drawBatch;
+    private BufferedImage sprite;
+    private BufferedImage preview;
+
+    // The tint recolorImage reads, bound to the benchmark thread
+    private RenderContext context;
+
+    @Setup
+    public void setup() throws IOException {
+        var schematicService = BenchmarkContext.getBean(SchematicService.class);
+        var schematic = schematicService.read(new ByteArrayInputStream(Corpus.schematic(size)), new PreviewTimings("benchmark"));
+
+        drawBatch = BenchmarkContext.getBean(DrawBatch.class);
+        sprite = BenchmarkContext.getBean(AssetsService.class).getAssetsByName("router", 0);
+        preview = schematicService.getSchematicImage(schematic, 32, new PreviewTimings("benchmark"));
+
+        context = DrawBatch.begin(new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB));
+        context.color.set(1f, 0.5f, 0.25f, 1f);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public BufferedImage recolorImage() {
+        return drawBatch.recolorImage(sprite);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return Utils.toByteArray(preview);
+    }
+}
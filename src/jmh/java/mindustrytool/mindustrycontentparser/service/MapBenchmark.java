@@ -0,0 +1,48 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import mindustrytool.mindustrycontentparser.BenchmarkContext;
+import mindustrytool.mindustrycontentparser.Corpus;
+import mindustrytool.mindustrycontentparser.types.request.MapPreviewRequest;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MapBenchmark {
+
+    @Param({ "small", "medium", "huge" })
+    public String size;
+
+    @Param({ "false", "true" })
+    public boolean metadata;
+
+    private MapService mapService;
+    private byte[] data;
+    private MapPreviewRequest request;
+
+    @Setup
+    public void setup() {
+        mapService = BenchmarkContext.getBean(MapService.class);
+        data = Corpus.map(size);
+
+        request = new MapPreviewRequest();
+        request.setMetadata(metadata);
+    }
+
+    @Benchmark
+    public MapService.Map readMap() throws IOException {
+        return mapService.readMap(new ByteArrayInputStream(data), request, new PreviewTimings("benchmark"));
+    }
+}
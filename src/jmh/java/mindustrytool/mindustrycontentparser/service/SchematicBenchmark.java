@@ -0,0 +1,53 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import mindustry.game.Schematic;
+import mindustrytool.mindustrycontentparser.BenchmarkContext;
+import mindustrytool.mindustrycontentparser.Corpus;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SchematicBenchmark {
+
+    @Param({ "small", "medium", "huge" })
+    public String size;
+
+    // Pixels per tile, 32 is the full resolution
+    @Param({ "32", "8" })
+    public int pixels;
+
+    private SchematicService schematicService;
+    private byte[] data;
+    private Schematic schematic;
+
+    @Setup
+    public void setup() throws IOException {
+        schematicService = BenchmarkContext.getBean(SchematicService.class);
+        data = Corpus.schematic(size);
+        schematic = schematicService.read(new ByteArrayInputStream(data), new PreviewTimings("benchmark"));
+    }
+
+    @Benchmark
+    public Schematic read() throws IOException {
+        return schematicService.read(new ByteArrayInputStream(data), new PreviewTimings("benchmark"));
+    }
+
+    @Benchmark
+    public BufferedImage getSchematicImage() {
+        return schematicService.getSchematicImage(schematic, pixels, new PreviewTimings("benchmark"));
+    }
+}
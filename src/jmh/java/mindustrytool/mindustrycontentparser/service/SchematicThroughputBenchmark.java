@@ -0,0 +1,58 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import mindustry.game.Schematic;
+import mindustrytool.mindustrycontentparser.BenchmarkContext;
+import mindustrytool.mindustrycontentparser.Corpus;
+
+/**
+ * Schematic renders per second on one thread and on every core. The ratio of
+ * the two is how far concurrent renders scale, Mindustry's plan drawing still
+ * runs one thread at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SchematicThroughputBenchmark {
+
+    @Param({ "small", "medium" })
+    public String size;
+
+    @Param({ "32", "8" })
+    public int pixels;
+
+    private SchematicService schematicService;
+    private Schematic schematic;
+
+    @Setup
+    public void setup() throws IOException {
+        schematicService = BenchmarkContext.getBean(SchematicService.class);
+        schematic = schematicService.read(new ByteArrayInputStream(Corpus.schematic(size)), new PreviewTimings("benchmark"));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BufferedImage oneThread() {
+        return schematicService.getSchematicImage(schematic, pixels, new PreviewTimings("benchmark"));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public BufferedImage allThreads() {
+        return schematicService.getSchematicImage(schematic, pixels, new PreviewTimings("benchmark"));
+    }
+}
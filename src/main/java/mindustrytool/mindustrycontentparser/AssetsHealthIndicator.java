@@ -0,0 +1,25 @@
+package mindustrytool.mindustrycontentparser;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import mindustrytool.mindustrycontentparser.service.AssetsService;
+
+@Component
+@RequiredArgsConstructor
+public class AssetsHealthIndicator implements HealthIndicator {
+
+    private final AssetsService assetsService;
+
+    @Override
+    public Health health() {
+        var health = assetsService.isReady() ? Health.up() : Health.outOfService();
+
+        return health//
+                .withDetail("regions", assetsService.getRegionCount())//
+                .withDetail("progress", assetsService.getProgress())//
+                .build();
+    }
+}
@@ -1,9 +1,31 @@
 package mindustrytool.mindustrycontentparser;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
 
 @ConfigurationProperties(prefix = "app")
-public record EnvConfig(Files files, Boolean init) {
+public record EnvConfig(Files files, Boolean init, @DefaultValue Assets assets, @DefaultValue Render render, @DefaultValue Previews previews) {
     public record Files(String assetsFolder, String modsFolder) {
     }
+
+    public record Assets(@DefaultValue("memory") AssetsMode mode, @DefaultValue("false") Boolean exportImages, @DefaultValue("256MB") DataSize cacheSize, @DefaultValue("64MB") DataSize tintCacheSize, String bundleFile) {
+    }
+
+    public record Render(@DefaultValue("256MB") DataSize memoryBudget, @DefaultValue("1024") Integer tileSize, Integer workers, @DefaultValue("64") Integer queueSize, @DefaultValue("30s") Duration timeout, @DefaultValue("64MB") DataSize floorCacheSize) {
+    }
+
+    public record Previews(@DefaultValue("128MB") DataSize cacheSize, String cacheFolder, @DefaultValue("100MB") DataSize maxUploadSize) {
+    }
+
+    public enum AssetsMode {
+        /** Sprites are cut into one PNG per region under images/ and read back on demand */
+        DISK,
+        /** Atlas pages are decoded once and regions are served as views into the page rasters */
+        MEMORY,
+        /** Regions are copied out of a memory-mapped pre-baked bundle, rebuilt when the atlas changes */
+        BUNDLE
+    }
 }
@@ -0,0 +1,112 @@
+package mindustrytool.mindustrycontentparser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import arc.struct.ObjectMap;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import mindustrytool.mindustrycontentparser.service.PreviewCache;
+import mindustrytool.mindustrycontentparser.service.RenderScheduler;
+import mindustrytool.mindustrycontentparser.service.RenderedPreview;
+import mindustrytool.mindustrycontentparser.types.response.MapPreviewResult;
+import mindustrytool.mindustrycontentparser.types.response.MapStatsDto;
+import mindustrytool.mindustrycontentparser.types.response.SchematicPreviewResult;
+import mindustrytool.mindustrycontentparser.utils.ImageFormat;
+
+@Configuration
+@RequiredArgsConstructor
+public class PreviewCacheConfig {
+
+    private final EnvConfig config;
+    private final ObjectMapper objectMapper;
+    private final RenderScheduler scheduler;
+    private final MeterRegistry registry;
+
+    @Bean
+    public PreviewCache<RenderedPreview<SchematicPreviewResult>> schematicPreviews() {
+        return new PreviewCache<>("schematic-previews", config.previews().cacheSize().toBytes() / 2, //
+                PreviewCacheConfig::weigh, //
+                getFolder(), //
+                schematicCodec(objectMapper), scheduler, registry);
+    }
+
+    @Bean
+    public PreviewCache<RenderedPreview<MapPreviewResult>> mapPreviews() {
+        return new PreviewCache<>("map-previews", config.previews().cacheSize().toBytes() / 2, //
+                PreviewCacheConfig::weigh, //
+                getFolder(), //
+                mapCodec(objectMapper), scheduler, registry);
+    }
+
+    static PreviewCache.Codec<RenderedPreview<SchematicPreviewResult>> schematicCodec(ObjectMapper objectMapper) {
+        var type = new TypeReference<RenderedPreview<SchematicPreviewResult>>() {
+        };
+
+        return new PreviewCache.Codec<>() {
+            @Override
+            public byte[] write(RenderedPreview<SchematicPreviewResult> value) throws IOException {
+                return objectMapper.writeValueAsBytes(value);
+            }
+
+            @Override
+            public RenderedPreview<SchematicPreviewResult> read(byte[] data) throws IOException {
+                return objectMapper.readValue(data, type);
+            }
+        };
+    }
+
+    static PreviewCache.Codec<RenderedPreview<MapPreviewResult>> mapCodec(ObjectMapper objectMapper) {
+        return new PreviewCache.Codec<>() {
+            @Override
+            public byte[] write(RenderedPreview<MapPreviewResult> value) throws IOException {
+                var result = value.result();
+                var tags = new LinkedHashMap<String, String>();
+                result.getTags().each(tags::put);
+
+                return objectMapper.writeValueAsBytes(new StoredMap(result.getName(), result.getAuthor(), result.getDescription(), result.getWidth(), result.getHeight(), tags, result.getStats(), value.image(), value.format()));
+            }
+
+            @Override
+            public RenderedPreview<MapPreviewResult> read(byte[] data) throws IOException {
+                var stored = objectMapper.readValue(data, StoredMap.class);
+                var tags = new ObjectMap<String, String>();
+                stored.tags().forEach(tags::put);
+
+                var result = new MapPreviewResult()//
+                        .setName(stored.name())//
+                        .setAuthor(stored.author())//
+                        .setDescription(stored.description())//
+                        .setWidth(stored.width())//
+                        .setHeight(stored.height())//
+                        .setTags(tags)//
+                        .setStats(stored.stats());
+
+                return new RenderedPreview<>(result, stored.image(), stored.format());
+            }
+        };
+    }
+
+    // The metadata is small next to the encoded image
+    private static int weigh(RenderedPreview<?> preview) {
+        return 1024 + (preview.image() == null ? 0 : preview.image().length);
+    }
+
+    // Arc's ObjectMap does not read back from json, tags are stored as a plain map
+    private record StoredMap(String name, String author, String description, int width, int height, Map<String, String> tags, MapStatsDto stats, byte[] image, ImageFormat format) {
+    }
+
+    private Path getFolder() {
+        var folder = config.previews().cacheFolder();
+
+        return folder == null || folder.isBlank() ? null : Path.of(folder);
+    }
+}
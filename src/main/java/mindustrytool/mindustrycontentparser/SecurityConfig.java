@@ -12,6 +12,7 @@ import org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource;
 import org.springframework.web.reactive.config.EnableWebFlux;
 
 import lombok.RequiredArgsConstructor;
+import mindustrytool.mindustrycontentparser.controller.PreviewResponses;
 
 @Configuration
 @EnableWebFlux
@@ -26,6 +27,7 @@ public class SecurityConfig {
         CorsConfiguration config = new CorsConfiguration();
         config.addAllowedHeader("*");
         config.addAllowedMethod("*");
+        config.addExposedHeader(PreviewResponses.METADATA_HEADER);
         config.addAllowedOrigin("http://localhost:3000");
         config.addAllowedOrigin("https://mindustry-tool.com");
         config.setAllowCredentials(true);
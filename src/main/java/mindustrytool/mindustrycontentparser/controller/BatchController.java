@@ -0,0 +1,27 @@
+package mindustrytool.mindustrycontentparser.controller;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import lombok.RequiredArgsConstructor;
+import mindustrytool.mindustrycontentparser.service.BatchService;
+import mindustrytool.mindustrycontentparser.types.request.BatchPreviewItem;
+import mindustrytool.mindustrycontentparser.types.response.BatchPreviewResult;
+import reactor.core.publisher.Flux;
+
+@RestController
+@RequestMapping("/api/v1/batch")
+@RequiredArgsConstructor
+public class BatchController {
+
+    private final BatchService batchService;
+
+    // Items as ndjson or a json array, one result line per item in completion order
+    @PostMapping(consumes = { MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE }, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchPreviewResult> getPreviews(@RequestBody Flux<BatchPreviewItem> items) {
+        return batchService.getPreviews(items);
+    }
+}
@@ -1,16 +1,21 @@
 package mindustrytool.mindustrycontentparser.controller;
 
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import lombok.RequiredArgsConstructor;
 import mindustrytool.mindustrycontentparser.service.MapService;
 import mindustrytool.mindustrycontentparser.types.request.MapPreviewRequest;
-import mindustrytool.mindustrycontentparser.types.response.MapPreviewResult;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @RestController
@@ -19,9 +24,16 @@ import reactor.core.publisher.Mono;
 public class MapController {
 
     private final MapService mapService;
+    private final PreviewResponses previewResponses;
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public Mono<MapPreviewResult> getPreview(@Validated @ModelAttribute MapPreviewRequest request) {
-        return mapService.getPreview(request);
+    public Mono<ResponseEntity<?>> getPreview(@Validated @ModelAttribute MapPreviewRequest request, @RequestHeader HttpHeaders headers) {
+        return mapService.getPreview(request).map(preview -> previewResponses.toResponse(preview, headers.getAccept(), "map"));
+    }
+
+    // Raw file as the body, options as query parameters
+    @PostMapping(consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<ResponseEntity<?>> getPreview(@Validated @ModelAttribute MapPreviewRequest request, @RequestBody Flux<DataBuffer> body, @RequestHeader HttpHeaders headers) {
+        return mapService.getPreview(body, request).map(preview -> previewResponses.toResponse(preview, headers.getAccept(), "map-upload"));
     }
 }
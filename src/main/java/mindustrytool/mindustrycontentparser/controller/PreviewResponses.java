@@ -0,0 +1,98 @@
+package mindustrytool.mindustrycontentparser.controller;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+import mindustrytool.mindustrycontentparser.service.PreviewMetrics;
+import mindustrytool.mindustrycontentparser.service.RenderedPreview;
+import mindustrytool.mindustrycontentparser.types.response.PreviewResponse;
+import mindustrytool.mindustrycontentparser.utils.ApiError;
+
+/**
+ * Turns a rendered preview into the response the client asked for. The image
+ * bytes are handed to the codecs as they are, which wrap them in a data buffer
+ * without copying.
+ */
+@Component
+@RequiredArgsConstructor
+public class PreviewResponses {
+
+    /** Result fields of binary image responses, json as url encoded utf-8 */
+    public static final String METADATA_HEADER = "X-Preview-Metadata";
+
+    /** Encoded header length above which proxies may start rejecting the response */
+    private static final int MAX_METADATA_HEADER = 4096;
+
+    private final ObjectMapper objectMapper;
+    private final PreviewMetrics previewMetrics;
+
+    /**
+     * An explicit multipart/mixed gets a json part and an image part, an explicit
+     * image type gets the raw image with the metadata in a header, anything else
+     * gets json with the image as base64. Metadata too large for a header gets
+     * the json response as well.
+     */
+    public ResponseEntity<?> toResponse(RenderedPreview<?> preview, List<MediaType> accept, String endpoint) {
+        if (preview.image() != null) {
+            if (accepts(accept, "multipart", "mixed")) {
+                return multipart(preview);
+            }
+
+            if (accepts(accept, "image", preview.format().mediaType.getSubtype())) {
+                var metadata = metadata(preview);
+
+                if (metadata.length() <= MAX_METADATA_HEADER) {
+                    return image(preview, metadata);
+                }
+            }
+        }
+
+        var image = preview.image() == null ? null : previewMetrics.toBase64(endpoint, preview.image());
+
+        return ResponseEntity.ok()//
+                .contentType(MediaType.APPLICATION_JSON)//
+                .body(new PreviewResponse<>(preview.result(), image));
+    }
+
+    // Only concrete types count, a bare */* keeps the json default
+    private static boolean accepts(List<MediaType> accept, String type, String subtype) {
+        return accept.stream().anyMatch(media -> media.getType().equals(type) //
+                && (media.isWildcardSubtype() || media.getSubtype().equals(subtype)));
+    }
+
+    private String metadata(RenderedPreview<?> preview) {
+        try {
+            return URLEncoder.encode(objectMapper.writeValueAsString(preview.result()), StandardCharsets.UTF_8).replace("+", "%20");
+        } catch (JsonProcessingException e) {
+            throw new ApiError(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to write preview metadata", e);
+        }
+    }
+
+    private ResponseEntity<?> image(RenderedPreview<?> preview, String metadata) {
+        return ResponseEntity.ok()//
+                .contentType(preview.format().mediaType)//
+                .header(METADATA_HEADER, metadata)//
+                .body(preview.image());
+    }
+
+    private ResponseEntity<?> multipart(RenderedPreview<?> preview) {
+        var builder = new MultipartBodyBuilder();
+        builder.part("metadata", preview.result(), MediaType.APPLICATION_JSON);
+        builder.part("image", preview.image(), preview.format().mediaType);
+
+        return ResponseEntity.ok()//
+                .contentType(MediaType.MULTIPART_MIXED)//
+                .body(builder.build());
+    }
+}
@@ -1,16 +1,21 @@
 package mindustrytool.mindustrycontentparser.controller;
 
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import lombok.RequiredArgsConstructor;
 import mindustrytool.mindustrycontentparser.service.SchematicService;
 import mindustrytool.mindustrycontentparser.types.request.SchematicPreviewRequest;
-import mindustrytool.mindustrycontentparser.types.response.SchematicPreviewResult;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @RestController
@@ -19,9 +24,16 @@ import reactor.core.publisher.Mono;
 public class SchematicController {
 
     private final SchematicService schematicService;
+    private final PreviewResponses previewResponses;
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public Mono<SchematicPreviewResult> getPreview(@Validated @ModelAttribute SchematicPreviewRequest request) {
-        return schematicService.getPreview(request);
+    public Mono<ResponseEntity<?>> getPreview(@Validated @ModelAttribute SchematicPreviewRequest request, @RequestHeader HttpHeaders headers) {
+        return schematicService.getPreview(request).map(preview -> previewResponses.toResponse(preview, headers.getAccept(), "schematic"));
+    }
+
+    // Raw file as the body, options as query parameters
+    @PostMapping(consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<ResponseEntity<?>> getPreview(@Validated @ModelAttribute SchematicPreviewRequest request, @RequestBody Flux<DataBuffer> body, @RequestHeader HttpHeaders headers) {
+        return schematicService.getPreview(body, request).map(preview -> previewResponses.toResponse(preview, headers.getAccept(), "schematic-upload"));
     }
 }
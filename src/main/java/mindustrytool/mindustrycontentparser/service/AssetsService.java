@@ -1,25 +1,36 @@
 package mindustrytool.mindustrycontentparser.service;
 
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.concurrent.ExecutionException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
 import arc.files.Fi;
-import arc.graphics.Texture;
 import arc.graphics.g2d.TextureAtlas.TextureAtlasData;
-import arc.struct.ObjectMap;
+import arc.struct.IntSeq;
+import arc.struct.ObjectIntMap;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import mindustrytool.mindustrycontentparser.EnvConfig;
+import mindustrytool.mindustrycontentparser.EnvConfig.AssetsMode;
 import mindustrytool.mindustrycontentparser.utils.ApiError;
-import mindustrytool.mindustrycontentparser.utils.Utils;
+import mindustrytool.mindustrycontentparser.utils.CacheMetrics;
+import mindustrytool.mindustrycontentparser.utils.Rasters;
+import mindustrytool.mindustrycontentparser.utils.SpriteBundle;
 
 @Slf4j
 @Service
@@ -27,81 +38,291 @@ import mindustrytool.mindustrycontentparser.utils.Utils;
 public class AssetsService {
 
     private final EnvConfig config;
+    private final MeterRegistry registry;
+
+    // Weighted by decoded pixel bytes, kept warm across requests
+    private Cache<String, BufferedImage> cache;
+
+    // Filled by the extraction workers, only read once extraction is done
+    private final ObjectIntMap<String> regionIds = new ObjectIntMap<>();
+    private BufferedImage[] regions = {};
 
-    private static final ObjectMap<String, BufferedImage> cache = new ObjectMap<String, BufferedImage>();
+    // Memory-mapped pre-baked atlas, only used in bundle mode
+    private volatile SpriteBundle bundle;
+
+    private CompletableFuture<Void> extraction = CompletableFuture.completedFuture(null);
+    private final AtomicInteger extracted = new AtomicInteger();
 
     public void reset() {
-        cache.clear();
+        cache.invalidateAll();
+    }
+
+    public CacheStats cacheStats() {
+        return cache.stats();
+    }
+
+    public boolean isReady() {
+        return extraction.isDone();
+    }
+
+    public void checkReady() {
+        if (!isReady()) {
+            throw new ApiError(HttpStatus.SERVICE_UNAVAILABLE, "Assets are still loading: " + (int) (getProgress() * 100) + "%");
+        }
+    }
+
+    public int getRegionCount() {
+        return bundle != null ? bundle.getRegions().size() : regions.length;
+    }
+
+    public SpriteBundle getBundle() {
+        return bundle;
+    }
+
+    public float getProgress() {
+        return regions.length == 0 ? 1f : (float) extracted.get() / regions.length;
     }
 
     @PostConstruct
-    public void init() throws InterruptedException, ExecutionException {
-        if (!config.init()) {
+    public void init() {
+        cache = Caffeine.newBuilder()//
+                .maximumWeight(config.assets().cacheSize().toBytes())//
+                .<String, BufferedImage>weigher((name, image) -> imageBytes(image))//
+                .recordStats()//
+                .build();
+
+        CacheMetrics.monitor(registry, cache, "assets");
+
+        var atlasFile = new Fi(config.files().assetsFolder() + "assets/sprites/sprites.aatls");
+        var spriteFolder = new Fi(config.files().assetsFolder() + "assets/sprites");
+
+        if (config.assets().mode() == AssetsMode.BUNDLE) {
+            initBundle(atlasFile, spriteFolder);
             return;
         }
 
-        var assetsFolder = new Fi(config.files().assetsFolder() + "images/");
+        boolean inMemory = config.assets().mode() == AssetsMode.MEMORY;
+        boolean export = config.init() && (!inMemory || config.assets().exportImages());
 
-        if (!assetsFolder.exists()) {
-            assetsFolder.mkdirs();
+        if (!inMemory && !export) {
+            return;
         }
 
-        var atlasFile = new Fi(config.files().assetsFolder() + "assets/sprites/sprites.aatls");
-        var spriteFolder = new Fi(config.files().assetsFolder() + "assets/sprites");
+        if (export) {
+            var assetsFolder = new Fi(config.files().assetsFolder() + "images/");
+
+            if (!assetsFolder.exists()) {
+                assetsFolder.mkdirs();
+            }
+        }
 
         var atlas = new TextureAtlasData(atlasFile, spriteFolder, false);
+        var atlasRegions = atlas.getRegions();
+
+        regions = new BufferedImage[atlasRegions.size];
+
+        for (int i = 0; i < atlasRegions.size; i++) {
+            regionIds.put(atlasRegions.get(i).name, i);
+        }
+
+        int workers = Runtime.getRuntime().availableProcessors();
+        var executor = Executors.newFixedThreadPool(workers);
+        var tasks = new ArrayList<CompletableFuture<Void>>();
+        long start = System.currentTimeMillis();
 
         for (var page : atlas.getPages()) {
-            try {
+            var pageRegions = new IntSeq();
 
-                BufferedImage atlasPage = ImageIO.read(page.textureFile.file());
+            for (int i = 0; i < atlasRegions.size; i++) {
+                if (atlasRegions.get(i).page == page) {
+                    pageRegions.add(i);
+                }
+            }
 
-                page.texture = Texture.createEmpty(null);
-                page.texture.width = page.width;
-                page.texture.height = page.height;
+            // Every page is decoded once, then its regions are split across the workers
+            var task = CompletableFuture.supplyAsync(() -> readPage(page.textureFile), executor).thenCompose(atlasPage -> {
+                if (atlasPage == null) {
+                    progress(pageRegions.size);
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
 
-                for (var region : atlas.getRegions()) {
+                var chunks = new ArrayList<CompletableFuture<Void>>();
+                int chunkSize = Math.max(1, (pageRegions.size + workers - 1) / workers);
 
-                    if (page != region.page) {
-                        continue;
-                    }
+                for (int from = 0; from < pageRegions.size; from += chunkSize) {
+                    int begin = from, end = Math.min(from + chunkSize, pageRegions.size);
 
-                    Utils.EXECUTOR_SERVICE.execute(() -> {
+                    chunks.add(CompletableFuture.runAsync(() -> {
+                        for (int index = begin; index < end; index++) {
+                            int id = pageRegions.get(index);
+                            var region = atlasRegions.get(id);
 
-                        BufferedImage image = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_ARGB);
-                        Graphics2D graphics = image.createGraphics();
+                            // Shares the page raster, no pixels are copied
+                            BufferedImage image = atlasPage.getSubimage(region.left, region.top, region.width, region.height);
 
-                        graphics.drawImage(atlasPage, 0, 0, region.width, region.height, region.left, region.top, region.left + region.width, region.top + region.height, null);
+                            if (inMemory) {
+                                regions[id] = image;
+                            }
 
-                        try {
-                            ImageIO.write(image, "png", getImageFile(region.name).file());
-                            log.info("Saved: " + region.name);
-                        } catch (IOException e) {
-                            e.printStackTrace();
+                            if (export) {
+                                try {
+                                    ImageIO.write(image, "png", getImageFile(region.name).file());
+                                } catch (IOException e) {
+                                    log.error("Failed to save: " + region.name, e);
+                                }
+                            }
                         }
-                    });
 
+                        progress(end - begin);
+                    }, executor));
                 }
+
+                return CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new));
+            });
+
+            tasks.add(task);
+        }
+
+        extraction = CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).whenComplete((ignored, error) -> {
+            executor.shutdown();
+
+            if (error != null) {
+                log.error("Failed to extract assets", error);
+            } else {
+                log.info("Extracted {} regions from {} atlas pages in {}ms", regions.length, atlas.getPages().size, System.currentTimeMillis() - start);
+            }
+        });
+    }
+
+    private void initBundle(Fi atlasFile, Fi spriteFolder) {
+        var bundleFile = new Fi(config.assets().bundleFile() != null ? config.assets().bundleFile() : config.files().assetsFolder() + "sprites.bundle");
+        var hash = SpriteBundle.hash(atlasFile, spriteFolder);
+
+        if (bundleFile.exists()) {
+            try {
+                var mapped = SpriteBundle.open(bundleFile);
+
+                if (mapped.matches(hash)) {
+                    bundle = mapped;
+                    log.info("Mapped {} regions from {}", mapped.getRegions().size(), bundleFile);
+                    return;
+                }
+
+                log.info("Atlas changed, rebuilding {}", bundleFile);
             } catch (IOException e) {
-                log.error("Failed to read: " + page.textureFile.name(), e);
+                log.warn("Failed to map {}, rebuilding it", bundleFile, e);
             }
         }
+
+        long start = System.currentTimeMillis();
+
+        extraction = CompletableFuture.runAsync(() -> {
+            try {
+                SpriteBundle.build(atlasFile, spriteFolder, bundleFile);
+                bundle = SpriteBundle.open(bundleFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((ignored, error) -> {
+            if (error != null) {
+                log.error("Failed to build sprite bundle", error);
+            } else {
+                log.info("Built {} with {} regions in {}ms", bundleFile, bundle.getRegions().size(), System.currentTimeMillis() - start);
+            }
+        });
+    }
+
+    private void progress(int count) {
+        int before = extracted.getAndAdd(count);
+        int step = Math.max(1, regions.length / 10);
+
+        if (before / step != (before + count) / step) {
+            log.info("Extracting assets: {}/{}", before + count, regions.length);
+        }
+    }
+
+    private BufferedImage readPage(Fi file) {
+        try {
+            var image = ImageIO.read(file.file());
+
+            return image == null ? null : Rasters.toIntArgb(image);
+        } catch (IOException e) {
+            log.error("Failed to read: " + file.name(), e);
+            return null;
+        }
+    }
+
+    public int getRegionId(String assetName) {
+        if (bundle != null) {
+            return bundle.getId(assetName);
+        }
+
+        return regionIds.get(assetName, -1);
+    }
+
+    public BufferedImage getAssetsById(int id) {
+        if (bundle != null) {
+            if (id < 0 || id >= bundle.getRegions().size()) {
+                throw new ApiError(HttpStatus.INTERNAL_SERVER_ERROR, "Error reading assets: " + id);
+            }
+
+            return cache.get(bundle.getRegions().get(id).name(), name -> bundle.read(id));
+        }
+
+        if (id < 0 || id >= regions.length || regions[id] == null) {
+            throw new ApiError(HttpStatus.INTERNAL_SERVER_ERROR, "Error reading assets: " + id);
+        }
+
+        return regions[id];
     }
 
     public BufferedImage getAssetsByName(String assetName) {
+        if (config.assets().mode() != AssetsMode.DISK) {
+            return getAssetsById(getRegionId(assetName));
+        }
 
-        return cache.get(assetName, () -> {
+        return cache.get(assetName, name -> {
 
-            var image = getImage(assetName);
+            var image = getImage(name);
 
             if (image != null) {
                 return image;
             }
 
-            throw new ApiError(HttpStatus.INTERNAL_SERVER_ERROR, "Error reading assets: " + assetName);
+            throw new ApiError(HttpStatus.INTERNAL_SERVER_ERROR, "Error reading assets: " + name);
         });
     }
 
+    /**
+     * Region shrunk by 2^level. Levels are built from the one above on first use
+     * and share the weighted cache with the full size sprites.
+     */
+    public BufferedImage getAssetsByName(String assetName, int level) {
+        if (level <= 0) {
+            return getAssetsByName(assetName);
+        }
+
+        String key = assetName + '@' + level;
+        var image = cache.getIfPresent(key);
+
+        // Not computed inside the cache, building a level looks up the one above
+        if (image == null) {
+            image = Rasters.halve(getAssetsByName(assetName, level - 1));
+            cache.put(key, image);
+        }
+
+        return image;
+    }
+
+    /** Smallest mip level with at least {@code tilePixels} pixels per tile */
+    public static int mipLevel(int tilePixels) {
+        return 31 - Integer.numberOfLeadingZeros(32 / tilePixels);
+    }
+
+    public static int imageBytes(BufferedImage image) {
+        return image.getWidth() * image.getHeight() * Integer.BYTES;
+    }
+
     private String getFileName(String assetName) {
         return config.files().assetsFolder() + "images/" + assetName.replace(" ", "_") + ".png";
     }
@@ -112,7 +333,7 @@ public class AssetsService {
 
     private BufferedImage getImage(String assetName) {
         try {
-            return ImageIO.read(getImageFile(assetName).file());
+            return Rasters.toIntArgb(ImageIO.read(getImageFile(assetName).file()));
         } catch (Exception e) {
             return null;
         }
@@ -0,0 +1,138 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import java.time.Duration;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import jakarta.validation.Validator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import mindustrytool.mindustrycontentparser.EnvConfig;
+import mindustrytool.mindustrycontentparser.types.request.BatchPreviewItem;
+import mindustrytool.mindustrycontentparser.types.request.MapPreviewRequest;
+import mindustrytool.mindustrycontentparser.types.request.SchematicPreviewRequest;
+import mindustrytool.mindustrycontentparser.types.response.BatchPreviewResult;
+import mindustrytool.mindustrycontentparser.types.response.PreviewResponse;
+import mindustrytool.mindustrycontentparser.utils.ApiError;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BatchService {
+
+    private static final int CONCURRENCY = Runtime.getRuntime().availableProcessors();
+
+    // Waits between tries while the render queue is full
+    private static final Duration MIN_BUSY_DELAY = Duration.ofMillis(50);
+    private static final Duration MAX_BUSY_DELAY = Duration.ofSeconds(1);
+
+    private final SchematicService schematicService;
+    private final MapService mapService;
+    private final Validator validator;
+    private final PreviewMetrics previewMetrics;
+    private final EnvConfig config;
+
+    /**
+     * Renders up to one item per core at a time and emits every result as soon
+     * as it is done. A failing item becomes an error line, the rest of the
+     * batch carries on.
+     */
+    public Flux<BatchPreviewResult> getPreviews(Flux<BatchPreviewItem> items) {
+        return items.index()//
+                .flatMap(item -> awaitCapacity(item.getT2(), item.getT1().intValue())//
+                        .onErrorResume(error -> Mono.just(toError(item.getT2(), item.getT1().intValue(), error))), //
+                        CONCURRENCY);
+    }
+
+    /**
+     * Items share the render queue with every other request. One turned away
+     * because the queue is full backs off and tries again, for up to the render
+     * timeout, so a busy server slows the batch down instead of filling it with
+     * 503 lines.
+     */
+    private Mono<BatchPreviewResult> awaitCapacity(BatchPreviewItem item, int index) {
+        return Mono.defer(() -> {
+            long giveUpAt = System.nanoTime() + config.render().timeout().toNanos();
+
+            return Mono.defer(() -> getPreview(item, index))//
+                    .retryWhen(Retry.backoff(Long.MAX_VALUE, MIN_BUSY_DELAY)//
+                            .maxBackoff(MAX_BUSY_DELAY)//
+                            .filter(error -> RenderScheduler.isBusy(error) && System.nanoTime() - giveUpAt < 0));
+        });
+    }
+
+    private Mono<BatchPreviewResult> getPreview(BatchPreviewItem item, int index) {
+        if (item.getType() == null || item.getData() == null) {
+            return ApiError.badRequest("Missing type or data");
+        }
+
+        Mono<? extends RenderedPreview<?>> preview = switch (item.getType()) {
+        case SCHEMATIC -> schematicService.getPreview(item.getData(), validate(toSchematicRequest(item)));
+        case MAP -> mapService.getPreview(item.getData(), validate(toMapRequest(item)));
+        };
+
+        return preview.map(rendered -> {
+            var image = rendered.image() == null ? null : previewMetrics.toBase64(item.getType().name().toLowerCase(), rendered.image());
+
+            return new BatchPreviewResult(item.getId(), index, HttpStatus.OK.value(), new PreviewResponse<>(rendered.result(), image), null);
+        });
+    }
+
+    private static SchematicPreviewRequest toSchematicRequest(BatchPreviewItem item) {
+        var request = new SchematicPreviewRequest();
+        var scale = item.getScale();
+
+        // Schematics only render at whole scales, 0.5 must not quietly become 0
+        if (scale != null && (scale <= 0 || scale != Math.floor(scale))) {
+            throw new ApiError(HttpStatus.BAD_REQUEST, "Validation failed: scale must be a positive whole number for schematics");
+        }
+
+        request.setScale(scale == null ? null : scale.intValue());
+        request.setSize(item.getSize());
+        request.setFormat(item.getFormat());
+        request.setQuality(item.getQuality());
+
+        return request;
+    }
+
+    private static MapPreviewRequest toMapRequest(BatchPreviewItem item) {
+        var request = new MapPreviewRequest();
+
+        request.setScale(item.getScale());
+        request.setSize(item.getSize());
+        request.setFormat(item.getFormat());
+        request.setQuality(item.getQuality());
+        request.setMetadata(item.getMetadata());
+
+        return request;
+    }
+
+    private <T> T validate(T request) {
+        var violations = validator.validate(request);
+
+        if (!violations.isEmpty()) {
+            var message = violations.stream()//
+                    .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())//
+                    .reduce((a, b) -> a + ", " + b)//
+                    .orElse("");
+
+            throw new ApiError(HttpStatus.BAD_REQUEST, "Validation failed: " + message);
+        }
+
+        return request;
+    }
+
+    private static BatchPreviewResult toError(BatchPreviewItem item, int index, Throwable error) {
+        if (error instanceof ApiError apiError) {
+            return new BatchPreviewResult(item.getId(), index, apiError.getStatus().value(), null, apiError.getMessage());
+        }
+
+        log.error("Batch item " + index + " failed", error);
+
+        return new BatchPreviewResult(item.getId(), index, HttpStatus.INTERNAL_SERVER_ERROR.value(), null, "Internal server error");
+    }
+}
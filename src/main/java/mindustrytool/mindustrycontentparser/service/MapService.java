@@ -2,68 +2,188 @@ package mindustrytool.mindustrycontentparser.service;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.function.Function;
 import java.util.zip.InflaterInputStream;
 
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
-import arc.graphics.Color;
+import arc.struct.IntSeq;
 import arc.struct.ObjectMap;
 import arc.struct.StringMap;
 import arc.util.io.CounterInputStream;
+import arc.util.io.Streams;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import mindustry.Vars;
 import mindustry.content.Blocks;
 import mindustry.game.Team;
-import mindustry.io.MapIO;
 import mindustry.io.SaveIO;
 import mindustry.io.SaveVersion;
 import mindustry.world.Block;
 import mindustry.world.CachedTile;
 import mindustry.world.Tile;
 import mindustry.world.WorldContext;
+import mindustrytool.mindustrycontentparser.EnvConfig;
+import mindustrytool.mindustrycontentparser.service.PreviewTimings.Stage;
 import mindustrytool.mindustrycontentparser.types.request.MapPreviewRequest;
 import mindustrytool.mindustrycontentparser.types.response.MapPreviewResult;
+import mindustrytool.mindustrycontentparser.types.response.MapStatsDto;
 import mindustrytool.mindustrycontentparser.utils.ApiError;
+import mindustrytool.mindustrycontentparser.utils.ImageEncoder;
+import mindustrytool.mindustrycontentparser.utils.MapCanvas;
+import mindustrytool.mindustrycontentparser.utils.MapPalette;
+import mindustrytool.mindustrycontentparser.utils.MapStatsCollector;
 import mindustrytool.mindustrycontentparser.utils.Utils;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class MapService {
 
-    private static Color co = new Color();
-    private static int SCALE = 8;
+    // Default pixels per tile
+    private static final int SCALE = 8;
+
+    // Opaque black in rgba, kept as is from the original outline check. Wall
+    // colors are argb so it never matches and every non-empty wall is outlined,
+    // which is how previews have always looked
+    private static final int BLACK = 255;
+    // Translucent black drawn around walls
+    private static final int OUTLINE = 0x40000000;
+
+    // Older save formats are read by Mindustry, see readLegacyTiles
+    private static final Object LEGACY_LOCK = new Object();
+
+    // Revision, health and rotation come before the team in a building chunk
+    private static final int TEAM_OFFSET = 6;
+
+    private final PreviewCache<RenderedPreview<MapPreviewResult>> previews;
+    private final MapPalette mapPalette;
+    private final EnvConfig config;
+    private final ImageEncoder imageEncoder;
+    private final RenderScheduler renderScheduler;
+    private final PreviewMetrics previewMetrics;
+
+    public Mono<RenderedPreview<MapPreviewResult>> getPreview(MapPreviewRequest request) {
+        var timings = previewMetrics.start("map");
+        var token = renderScheduler.token();
+
+        // Decoding, hashing, the cache lookup and the render are one task, the
+        // request is either turned away before any of it or not at all
+        return renderScheduler.submit(token, () -> {
+            long start = System.nanoTime();
+            byte[] data = Utils.decode(request.getData());
+            timings.add(Stage.DECODE, start);
+
+            return getPreview(data, request, token, timings);
+        }).flatMap(Function.identity());
+    }
+
+    /** Preview of the raw map file, {@code request.data} is ignored */
+    public Mono<RenderedPreview<MapPreviewResult>> getPreview(byte[] data, MapPreviewRequest request) {
+        var timings = previewMetrics.start("map");
+        var token = renderScheduler.token();
+
+        return renderScheduler.submit(token, () -> getPreview(data, request, token, timings)).flatMap(Function.identity());
+    }
+
+    // Runs in the render task of the request
+    private Mono<RenderedPreview<MapPreviewResult>> getPreview(byte[] data, MapPreviewRequest request, RenderToken token, PreviewTimings timings) {
+        // Reading the meta region is cheaper than hashing the payload, so it skips the cache
+        var preview = Boolean.TRUE.equals(request.getMetadata()) //
+                ? Mono.just(getPreview(parseDecodedMap(data, request, timings), request, timings))
+                : previews.get(PreviewCache.key(data, getOptions(request)), token, timings, () -> getPreview(parseDecodedMap(data, request, timings), request, timings));
 
-    public Mono<MapPreviewResult> getPreview(MapPreviewRequest request) {
-        Map map = parseDecodedMap(Utils.decode(request.getData()));
+        return preview.doOnSuccess(result -> previewMetrics.record(timings, data.length));
+    }
+
+    /**
+     * Same preview from the raw map file. Maps are drawn as their tiles are
+     * read, so the upload is buffered up to the size limit first and rendered
+     * like any other payload, no render slot waits on the client. Metadata only
+     * needs the head of the file, it is read as it arrives under an upload permit.
+     */
+    public Mono<RenderedPreview<MapPreviewResult>> getPreview(Flux<DataBuffer> body, MapPreviewRequest request) {
+        var timings = previewMetrics.start("map-upload");
+        var token = renderScheduler.token();
+
+        if (!Boolean.TRUE.equals(request.getMetadata())) {
+            return Utils.readAllBytes(body, Math.toIntExact(config.previews().maxUploadSize().toBytes()))//
+                    .flatMap(data -> renderScheduler.submit(token, () -> getPreview(data, request, token, timings)))//
+                    .flatMap(Function.identity());
+        }
+
+        return Mono.defer(() -> {
+            var upload = Utils.toInputStream(body);
+
+            return renderScheduler.submitUpload(token, () -> getMetadata(upload, request, timings), () -> Streams.close(upload));
+        });
+    }
 
+    private RenderedPreview<MapPreviewResult> getMetadata(InputStream upload, MapPreviewRequest request, PreviewTimings timings) {
+        var counter = new CounterInputStream(upload);
+
+        // Closing the stream cancels the rest of the upload
+        try (counter) {
+            var preview = getPreview(readMap(counter, request, timings), request, timings);
+            previewMetrics.record(timings, counter.count);
+
+            return preview;
+        } catch (IOException e) {
+            log.error("Can not read map", e);
+            throw new ApiError(HttpStatus.BAD_REQUEST, "Cannot read map", e);
+        }
+    }
+
+    private static String getOptions(MapPreviewRequest request) {
+        return "scale=" + request.getScale() + ",size=" + request.getSize() + ",format=" + request.getFormat() + ",quality=" + request.getQuality();
+    }
+
+    private RenderedPreview<MapPreviewResult> getPreview(Map map, MapPreviewRequest request, PreviewTimings timings) {
         var result = new MapPreviewResult()//
                 .setAuthor(map.author)//
                 .setDescription(map.description)//
                 .setHeight(map.height)//
-                .setImage(Utils.imageToBase64(map.image))//
                 .setName(map.name)//
                 .setTags(map.tags)//
+                .setStats(map.stats)//
                 .setWidth(map.width);
 
-        return Mono.just(result);
+        long start = System.nanoTime();
+        byte[] image = map.image == null ? null : imageEncoder.encode(map.image, request.getFormat(), request.getQuality());
+
+        if (image != null) {
+            timings.add(Stage.ENCODE, start);
+        }
+
+        return new RenderedPreview<>(result, image, request.getFormat());
     }
 
-    public synchronized Map parseDecodedMap(byte[] data) {
+    /** Reads a map, for metadata requests inflating stops after the meta region and no image is drawn */
+    public Map parseDecodedMap(byte[] data, MapPreviewRequest request, PreviewTimings timings) {
         try {
-            return readMap(new ByteArrayInputStream(data));
+            return readMap(new ByteArrayInputStream(data), request, timings);
         } catch (IOException e) {
+            // Regions wrap whatever the callbacks throw, a stopped render is not a broken map
+            RenderToken.checkCurrent();
+
             log.error("Can not read map", e);
             throw new ApiError(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot read map");
         }
     }
 
-    private synchronized Map readMap(InputStream is) throws IOException {
-        try (InputStream ifs = new InflaterInputStream(is); CounterInputStream counter = new CounterInputStream(ifs); DataInputStream stream = new DataInputStream(counter)) {
+    // Package-private for the benchmarks
+    Map readMap(InputStream is, MapPreviewRequest request, PreviewTimings timings) throws IOException {
+        long start = System.nanoTime();
+
+        try (InputStream ifs = timings.inflating(new InflaterInputStream(is)); CounterInputStream counter = new CounterInputStream(ifs); DataInputStream stream = new DataInputStream(counter)) {
 
             Map out = new Map();
 
@@ -88,33 +208,137 @@ public class MapService {
             out.width = width;
             out.height = height;
 
-            var floors = new BufferedImage(width * SCALE + SCALE, height * SCALE + SCALE, BufferedImage.TYPE_INT_ARGB);
-            var walls = new BufferedImage(width * SCALE + SCALE, height * SCALE + SCALE, BufferedImage.TYPE_INT_ARGB);
+            if (Boolean.TRUE.equals(request.getMetadata())) {
+                timings.add(Stage.READ, start);
+                return out;
+            }
 
-            var fgraphics = floors.createGraphics();
+            var painter = new MapPainter(MapCanvas.create(width, height, getScale(request, width, height), config.render().memoryBudget().toBytes()), mapPalette.get());
 
-            var jcolor = new java.awt.Color(0, 0, 0, 64);
-            int black = 255;
-            CachedTile tile = new CachedTile() {
-                @Override
-                public void setBlock(Block type) {
-                    super.setBlock(type);
-
-                    int c = conv(MapIO.colorFor(block(), Blocks.air, Blocks.air, team()));
-                    if (c != black && c != 0) {
-                        try {
-
-                            fgraphics.setColor(jcolor);
-                            fgraphics.drawRect(x * SCALE, floors.getHeight() - SCALE - y * SCALE - SCALE, SCALE, SCALE);
-                        } catch (Exception e) {
-                            log.error("Can not read map", e);
-                        }
-                    }
+            // The content mapper belongs to this thread, see ThreadLocalContentLoader
+            try {
+                ver.region("content", stream, counter, ver::readContentHeader);
+
+                if (isCurrentFormat(ver)) {
+                    ver.region("preview_map", stream, counter, in -> readTiles(in, painter));
+                } else {
+                    ver.region("preview_map", stream, counter, in -> readLegacyTiles(ver, in, width, painter));
                 }
-            };
+            } finally {
+                Vars.content.setTemporaryMapper(null);
+            }
+
+            timings.add(Stage.READ, start);
+            start = System.nanoTime();
+
+            var canvas = painter.canvas;
+            var buildings = painter.buildings;
+
+            canvas.flush();
+
+            for (int i = 0; i < buildings.size; i += 4) {
+                canvas.fillBlock(buildings.get(i), buildings.get(i + 1), buildings.get(i + 2), buildings.get(i + 3));
+            }
+
+            timings.add(Stage.COMPOSITE, start);
+
+            out.image = canvas.image;
+            out.stats = painter.stats.toDto();
+
+            return out;
+        }
+    }
+
+    // Versions that still read tiles through SaveVersion.readMap as it is
+    private static boolean isCurrentFormat(SaveVersion ver) {
+        try {
+            return ver.getClass().getMethod("readMap", DataInput.class, WorldContext.class).getDeclaringClass() == SaveVersion.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
 
-            ver.region("content", stream, counter, ver::readContentHeader);
-            ver.region("preview_map", stream, counter, in -> ver.readMap(in, new WorldContext() {
+    /**
+     * The tile region the way SaveVersion.readMap reads it, without tiles or
+     * buildings. Mindustry would load every building through the static Reads
+     * into shared state, only its team is needed here.
+     */
+    private static void readTiles(DataInput stream, MapPainter painter) throws IOException {
+        int width = stream.readUnsignedShort(), height = stream.readUnsignedShort();
+        int area = width * height;
+
+        for (int i = 0; i < area; i++) {
+            short floorID = stream.readShort(), overlayID = stream.readShort();
+            int consecutives = stream.readUnsignedByte();
+
+            if (Vars.content.block(floorID) == Blocks.air) {
+                floorID = Blocks.stone.id;
+            }
+
+            for (int j = i; j <= i + consecutives; j++) {
+                painter.floor(j % width, j / width, floorID, overlayID);
+            }
+
+            i += consecutives;
+        }
+
+        byte[] chunk = new byte[0xffff];
+
+        for (int i = 0; i < area; i++) {
+            Block block = Vars.content.block(stream.readShort());
+            byte packed = stream.readByte();
+            int x = i % width, y = i / width;
+
+            if (block == null) {
+                block = Blocks.air;
+            }
+
+            painter.checkToken();
+
+            if ((packed & 1) != 0) {
+                // Other tiles of a multiblock only point at its center
+                if (!stream.readBoolean()) {
+                    continue;
+                }
+
+                painter.block(x, y, block);
+
+                int length = stream.readUnsignedShort();
+                stream.readFully(chunk, 0, length);
+
+                if (block.hasBuilding() && length > TEAM_OFFSET) {
+                    painter.building(x, y, block, Team.get(chunk[TEAM_OFFSET]));
+                }
+            } else if ((packed & 2) != 0) {
+                painter.block(x, y, block);
+                stream.readByte();
+            } else {
+                int consecutives = stream.readUnsignedByte();
+
+                for (int j = i; j <= i + consecutives; j++) {
+                    painter.block(j % width, j / width, block);
+                }
+
+                i += consecutives;
+            }
+        }
+    }
+
+    /**
+     * Older saves read through Mindustry itself, which loads buildings through
+     * the static Reads and shared building state, so one at a time.
+     */
+    private static void readLegacyTiles(SaveVersion ver, DataInput stream, int width, MapPainter painter) throws IOException {
+        CachedTile tile = new CachedTile() {
+            @Override
+            public void setBlock(Block type) {
+                super.setBlock(type);
+                painter.block(x, y, block());
+            }
+        };
+
+        synchronized (LEGACY_LOCK) {
+            ver.readMap(stream, new WorldContext() {
                 @Override
                 public void resize(int width, int height) {
                 }
@@ -124,40 +348,26 @@ public class MapService {
                     return false;
                 }
 
+                // The world stays in generating mode for the whole process, see MindustryContent
                 @Override
                 public void begin() {
-                    Vars.world.setGenerating(true);
                 }
 
                 @Override
                 public void end() {
-                    Vars.world.setGenerating(false);
                 }
 
                 @Override
                 public void onReadBuilding() {
-                    // read team colors
                     if (tile.build != null) {
-                        int c = tile.build.team.color.argb8888();
-                        int size = tile.block().size * SCALE;
-                        int offsetx = -(size - SCALE) / 2;
-                        int offsety = -(size - SCALE) / 2;
-
-                        try {
-                            for (int dx = 0; dx < size; dx++) {
-                                for (int dy = 0; dy < size; dy++) {
-                                    int drawx = tile.x * SCALE + dx + offsetx, drawy = tile.y * SCALE + dy + offsety;
-                                    walls.setRGB(drawx, floors.getHeight() - SCALE - drawy, c);
-                                }
-                            }
-                        } catch (Exception e) {
-                            log.error("Can not read map", e);
-                        }
+                        painter.building(tile.x, tile.y, tile.block(), tile.build.team);
                     }
                 }
 
                 @Override
                 public Tile tile(int index) {
+                    painter.checkToken();
+
                     tile.x = (short) (index % width);
                     tile.y = (short) (index / width);
                     return tile;
@@ -165,47 +375,78 @@ public class MapService {
 
                 @Override
                 public Tile create(int x, int y, int floorID, int overlayID, int wallID) {
-                    if (overlayID != 0) {
-                        var color = conv(MapIO.colorFor(Blocks.air, Blocks.air, Vars.content.block(overlayID), Team.derelict));
-                        for (int offsetX = 0; offsetX < SCALE; offsetX++) {
-                            for (int offsetY = 0; offsetY < SCALE; offsetY++) {
-                                try {
-                                    floors.setRGB(x * SCALE + offsetX, floors.getHeight() - SCALE - y * SCALE - offsetY, color);
-                                } catch (Exception e) {
-                                    log.error("Can not read map", e);
-                                }
-                            }
-                        }
-                    } else {
-                        var color = conv(MapIO.colorFor(Blocks.air, Vars.content.block(floorID), Blocks.air, Team.derelict));
-                        for (int offsetX = 0; offsetX < SCALE; offsetX++) {
-                            for (int offsetY = 0; offsetY < SCALE; offsetY++) {
-                                try {
-                                    floors.setRGB(x * SCALE + offsetX, floors.getHeight() - SCALE - y * SCALE - offsetY, color);
-                                } catch (Exception e) {
-                                    log.error("Can not read map", e);
-                                }
-                            }
-                        }
-                    }
+                    painter.floor(x, y, floorID, overlayID);
                     return tile;
                 }
-            }));
+            });
+        }
+    }
 
-            fgraphics.drawImage(walls, 0, 0, null);
-            fgraphics.dispose();
+    /** Draws the tiles of one map as they are read and collects its buildings and stats */
+    private static class MapPainter {
 
-            out.image = floors;
+        final MapCanvas canvas;
+        final MapPalette.Colors colors;
 
-            return out;
+        // Buildings are painted over the floor and its outlines once every tile is read
+        final IntSeq buildings = new IntSeq();
+        final MapStatsCollector stats = new MapStatsCollector();
+
+        int reads;
+
+        MapPainter(MapCanvas canvas, MapPalette.Colors colors) {
+            this.canvas = canvas;
+            this.colors = colors;
+        }
+
+        // Saved ids go through the map's content mapper first
+        void floor(int x, int y, int floorID, int overlayID) {
+            checkToken();
+
+            int argb;
+
+            if (overlayID != 0) {
+                var overlay = Vars.content.block(overlayID);
+                argb = colors.overlay(overlay.id);
+                stats.overlay(x, y, overlay);
+            } else {
+                argb = colors.floor(Vars.content.block(floorID).id);
+            }
 
-        } finally {
-            Vars.content.setTemporaryMapper(null);
+            canvas.fillTile(x, y, argb);
+        }
+
+        void block(int x, int y, Block block) {
+            int c = colors.wall(block, Team.derelict);
+            if (c != BLACK && c != 0) {
+                canvas.outlineTile(x, y, OUTLINE);
+            }
+        }
+
+        void building(int x, int y, Block block, Team team) {
+            buildings.add(x, y, block.size, colors.team(team));
+            stats.building(x, y, block, team);
+        }
+
+        // Once every 1024 tiles, a timed out or abandoned render stops within a few rows
+        void checkToken() {
+            if ((++reads & 1023) == 0) {
+                RenderToken.checkCurrent();
+            }
         }
     }
 
-    static int conv(int rgba) {
-        return co.set(rgba).argb8888();
+    /** Pixels per tile, a size is fitted to the longer side including the one tile margin */
+    private static float getScale(MapPreviewRequest request, int width, int height) {
+        if (request.getScale() != null) {
+            return request.getScale();
+        }
+
+        if (request.getSize() != null) {
+            return request.getSize() / (float) (Math.max(width, height) + 1);
+        }
+
+        return SCALE;
     }
 
     public static class Map {
@@ -213,5 +454,6 @@ public class MapService {
         public int height, width;
         public ObjectMap<String, String> tags = new ObjectMap<>();
         public BufferedImage image;
+        public MapStatsDto stats;
     }
 }
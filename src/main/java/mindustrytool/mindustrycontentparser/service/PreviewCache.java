@@ -0,0 +1,202 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import mindustrytool.mindustrycontentparser.utils.CacheMetrics;
+import reactor.core.publisher.Mono;
+
+/**
+ * Rendered previews keyed by a hash of the decoded payload and the render
+ * options. Results are kept in a memory tier bounded by their approximate size
+ * and, when a folder is configured, written through to a disk tier that
+ * survives restarts.
+ */
+@Slf4j
+public class PreviewCache<T> {
+
+    /** How results are stored on disk */
+    public interface Codec<T> {
+        byte[] write(T value) throws IOException;
+
+        T read(byte[] data) throws IOException;
+    }
+
+    private final Cache<String, T> memory;
+    private final Path folder;
+    private final Codec<T> codec;
+    private final RenderScheduler scheduler;
+
+    // Renders in progress, joined by every other request for the same key
+    private final ConcurrentHashMap<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter coalesced;
+    private final Counter diskHits;
+    private final Counter diskMisses;
+
+    public PreviewCache(String name, long maximumWeight, ToIntFunction<T> weigher, Path folder, Codec<T> codec, RenderScheduler scheduler, MeterRegistry registry) {
+        this.memory = Caffeine.newBuilder()//
+                .maximumWeight(maximumWeight)//
+                .<String, T>weigher((key, value) -> key.length() + weigher.applyAsInt(value))//
+                .recordStats()//
+                .build();
+        this.folder = folder == null ? null : folder.resolve(name);
+        this.codec = codec;
+        this.scheduler = scheduler;
+
+        CacheMetrics.monitor(registry, memory, name);
+
+        coalesced = Counter.builder("previews.coalesced").tag("cache", name).register(registry);
+        diskHits = Counter.builder("previews.disk.gets").tag("cache", name).tag("result", "hit").register(registry);
+        diskMisses = Counter.builder("previews.disk.gets").tag("cache", name).tag("result", "miss").register(registry);
+    }
+
+    /** Hex SHA-256 of the payload followed by the options that change the output */
+    public static String key(byte[] payload, String options) {
+        var digest = digest();
+        digest.update(payload);
+
+        return key(digest, options);
+    }
+
+    /** Same key from a digest that has already seen the whole payload, for streamed uploads */
+    public static String key(MessageDigest digest, String options) {
+        digest.update((byte) 0);
+        digest.update(options.getBytes(StandardCharsets.UTF_8));
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public T getIfPresent(String key) {
+        var value = memory.getIfPresent(key);
+
+        if (value != null || folder == null) {
+            return value;
+        }
+
+        value = readDisk(key);
+
+        if (value != null) {
+            memory.put(key, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns the cached result or renders it on the calling thread, which is
+     * the render task of the request. A request for a key that another request
+     * is still rendering joins that render instead, the returned Mono waits for
+     * it without holding a thread. Failed renders are not cached and the next
+     * request tries again; when the render was cancelled with its own request,
+     * the joined ones queue a render of their own. Joining marks
+     * {@code timings}, so the render is only recorded by the request that ran it.
+     */
+    public Mono<T> get(String key, RenderToken token, PreviewTimings timings, Supplier<T> render) {
+        var value = getIfPresent(key);
+
+        if (value != null) {
+            return Mono.just(value);
+        }
+
+        var flight = new CompletableFuture<T>();
+        var running = inFlight.putIfAbsent(key, flight);
+
+        if (running != null) {
+            coalesced.increment();
+            timings.joined = true;
+
+            // Waiting still counts against this request's deadline, and leaving
+            // does not cancel the render for the others
+            return token.timeout(Mono.fromFuture(running, true)).onErrorResume(CancellationException.class, e -> {
+                timings.joined = false;
+                return scheduler.submit(token, () -> get(key, token, timings, render)).flatMap(Function.identity());
+            });
+        }
+
+        try {
+            value = render.get();
+            put(key, value);
+            flight.complete(value);
+
+            return Mono.just(value);
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            // Only this render's own entry is removed, a newer render that replaced
+            // it under the same key keeps running for the requests that joined it
+            inFlight.remove(key, flight);
+        }
+    }
+
+    public void put(String key, T value) {
+        memory.put(key, value);
+
+        if (folder != null) {
+            writeDisk(key, value);
+        }
+    }
+
+    private Path getFile(String key) {
+        return folder.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private T readDisk(String key) {
+        try {
+            var value = codec.read(Files.readAllBytes(getFile(key)));
+            diskHits.increment();
+
+            return value;
+        } catch (NoSuchFileException e) {
+            diskMisses.increment();
+        } catch (IOException e) {
+            log.warn("Can not read cached preview " + key, e);
+            diskMisses.increment();
+        }
+
+        return null;
+    }
+
+    private void writeDisk(String key, T value) {
+        var file = getFile(key);
+
+        try {
+            Files.createDirectories(file.getParent());
+
+            // Written next to the entry and moved over it, readers never see a partial file
+            var temp = Files.createTempFile(file.getParent(), key, ".tmp");
+            Files.write(temp, codec.write(value));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Can not write cached preview " + key, e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import mindustrytool.mindustrycontentparser.service.PreviewTimings.Stage;
+import mindustrytool.mindustrycontentparser.utils.Utils;
+
+/**
+ * Per-stage latency of the preview pipelines as {@code preview.stage} timers,
+ * tagged by stage, endpoint and payload size bucket. Each timer publishes a
+ * fixed set of latency buckets rather than a full percentile histogram, which
+ * would add around 70 series to every tag combination.
+ */
+@Component
+@RequiredArgsConstructor
+public class PreviewMetrics {
+
+    private static final Duration[] LATENCY_BUCKETS = { //
+            Duration.ofMillis(1), Duration.ofMillis(5), Duration.ofMillis(10), Duration.ofMillis(25), //
+            Duration.ofMillis(50), Duration.ofMillis(100), Duration.ofMillis(250), Duration.ofMillis(500), //
+            Duration.ofSeconds(1), Duration.ofMillis(2500), Duration.ofSeconds(5), Duration.ofSeconds(10), Duration.ofSeconds(30) };
+
+    // The size bucket bounds and a few more
+    private static final double[] PAYLOAD_BUCKETS = { 1024, 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024, 16 * 1024 * 1024, 64 * 1024 * 1024 };
+
+    private final MeterRegistry registry;
+
+    public PreviewTimings start(String endpoint) {
+        return new PreviewTimings(endpoint);
+    }
+
+    /**
+     * Records the stages a preview went through, cache hits only have the early
+     * ones. Requests that joined another request's render are left out, that
+     * render is recorded once by the request that ran it.
+     */
+    public void record(PreviewTimings timings, long payloadBytes) {
+        if (timings.joined) {
+            return;
+        }
+
+        String size = sizeBucket(payloadBytes);
+
+        for (var stage : Stage.values()) {
+            if ((timings.used & (1 << stage.ordinal())) != 0) {
+                timer(stage.name().toLowerCase(), timings.endpoint, size).record(timings.nanos[stage.ordinal()], TimeUnit.NANOSECONDS);
+            }
+        }
+
+        DistributionSummary.builder("preview.payload.bytes")//
+                .baseUnit("bytes")//
+                .tag("endpoint", timings.endpoint)//
+                .serviceLevelObjectives(PAYLOAD_BUCKETS)//
+                .register(registry)//
+                .record(payloadBytes);
+    }
+
+    /** Base64 of an image for json responses, bucketed by the image size */
+    public String toBase64(String endpoint, byte[] image) {
+        long start = System.nanoTime();
+        String base64 = Utils.toBase64(image);
+
+        timer("base64", endpoint, sizeBucket(image.length)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return base64;
+    }
+
+    private Timer timer(String stage, String endpoint, String size) {
+        return Timer.builder("preview.stage")//
+                .tag("stage", stage)//
+                .tag("endpoint", endpoint)//
+                .tag("size", size)//
+                .serviceLevelObjectives(LATENCY_BUCKETS)//
+                .register(registry);
+    }
+
+    static String sizeBucket(long bytes) {
+        if (bytes < 16 * 1024) {
+            return "small";
+        }
+
+        if (bytes < 256 * 1024) {
+            return "medium";
+        }
+
+        return bytes < 4 * 1024 * 1024 ? "large" : "huge";
+    }
+}
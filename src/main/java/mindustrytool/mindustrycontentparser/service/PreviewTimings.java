@@ -0,0 +1,94 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Time spent in each stage of one preview, summed over every call. Published
+ * by {@link PreviewMetrics} once the payload size is known.
+ */
+public class PreviewTimings {
+
+    public enum Stage {
+        /** Base64 payload to bytes */
+        DECODE,
+        /** Decompressing the payload, done as the parser asks for more */
+        INFLATE,
+        /** Parsing, maps are also drawn here as tiles are read */
+        READ,
+        /** Block plan regions, shadows and configs */
+        DRAW,
+        /** Background, floor tiles, downsampling and map buildings */
+        COMPOSITE,
+        /** Image to webp or png */
+        ENCODE
+    }
+
+    final String endpoint;
+    final long[] nanos = new long[Stage.values().length];
+    int used;
+
+    // Joined another request's render, see PreviewCache#get
+    boolean joined;
+
+    PreviewTimings(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /** Adds the time since {@code start}, a {@link System#nanoTime()} */
+    public void add(Stage stage, long start) {
+        nanos[stage.ordinal()] += System.nanoTime() - start;
+        used |= 1 << stage.ordinal();
+    }
+
+    /**
+     * Buffers {@code inflater} and counts the time spent in it as
+     * {@link Stage#INFLATE}. It is read while {@link Stage#READ} is timed around
+     * it, so that time is taken out of READ again.
+     */
+    public InputStream inflating(InputStream inflater) {
+        return new BufferedInputStream(new FilterInputStream(inflater) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+
+                try {
+                    return super.read();
+                } finally {
+                    inflated(start);
+                }
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                long start = System.nanoTime();
+
+                try {
+                    return super.read(buffer, offset, length);
+                } finally {
+                    inflated(start);
+                }
+            }
+        });
+    }
+
+    private void inflated(long start) {
+        long spent = System.nanoTime() - start;
+
+        nanos[Stage.INFLATE.ordinal()] += spent;
+        nanos[Stage.READ.ordinal()] -= spent;
+        used |= 1 << Stage.INFLATE.ordinal();
+    }
+
+    public void time(Stage stage, Runnable runnable) {
+        long start = System.nanoTime();
+
+        try {
+            runnable.run();
+        } finally {
+            add(stage, start);
+        }
+    }
+}
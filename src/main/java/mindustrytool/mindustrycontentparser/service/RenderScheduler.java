@@ -0,0 +1,193 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import java.io.Serial;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import mindustrytool.mindustrycontentparser.EnvConfig;
+import mindustrytool.mindustrycontentparser.utils.ApiError;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Fixed pool of render threads in front of a bounded queue. Parsing, drawing
+ * and encoding run here instead of on the event loop, and once the queue is
+ * full new work is turned away with a 503 instead of piling up. Each request
+ * takes a {@link RenderToken} from {@link #token()} when it arrives, with the
+ * configured deadline, and every task it submits runs under that token.
+ * <p>
+ * Uploads that are parsed while they stream in block on the client, so they
+ * run on boundedElastic instead, each holding one of as many upload permits as
+ * there are render threads.
+ */
+@Component
+public class RenderScheduler {
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore uploads;
+    private final long timeout;
+
+    private final Timer waitTime;
+    private final Counter rejected;
+
+    public RenderScheduler(EnvConfig config, MeterRegistry registry) {
+        int workers = config.render().workers() == null ? Runtime.getRuntime().availableProcessors() : config.render().workers();
+
+        timeout = config.render().timeout().toNanos();
+        executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(config.render().queueSize()), threadFactory());
+        uploads = new Semaphore(workers);
+
+        waitTime = Timer.builder("render.queue.wait").register(registry);
+        rejected = Counter.builder("render.rejected").register(registry);
+
+        Gauge.builder("render.queue.size", executor, e -> e.getQueue().size()).register(registry);
+        Gauge.builder("render.queue.capacity", executor, e -> e.getQueue().remainingCapacity() + e.getQueue().size()).register(registry);
+        Gauge.builder("render.active", executor, ThreadPoolExecutor::getActiveCount).register(registry);
+        Gauge.builder("render.uploads.active", uploads, permits -> workers - permits.availablePermits()).register(registry);
+    }
+
+    /** Token for a request arriving now */
+    public RenderToken token() {
+        return new RenderToken(System.nanoTime() + timeout);
+    }
+
+    /**
+     * Runs {@code task} on a render thread under the request's token. When the
+     * subscriber cancels, a task still waiting in the queue is dropped and a
+     * running one is stopped at its next {@link RenderToken#checkCurrent()}.
+     */
+    public <T> Mono<T> submit(RenderToken token, Supplier<T> task) {
+        return Mono.create(sink -> {
+            long queuedAt = System.nanoTime();
+
+            try {
+                var future = executor.submit(() -> {
+                    waitTime.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                    RenderToken.bind(token);
+
+                    try {
+                        token.check();
+                        sink.success(task.get());
+                    } catch (Throwable e) {
+                        // Nobody is listening any more
+                        if (!token.isCancelled()) {
+                            sink.error(e);
+                        }
+                    } finally {
+                        RenderToken.unbind();
+                    }
+                });
+
+                sink.onCancel(() -> {
+                    token.cancel();
+
+                    if (future.cancel(false)) {
+                        executor.remove((Runnable) future);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                sink.error(busy());
+            }
+        });
+    }
+
+    /**
+     * Runs {@code task} on boundedElastic under an upload permit, for reading an
+     * upload as it arrives. Without a free permit the upload is turned away with
+     * the same 503 as a full queue. The permit is held until the task returns,
+     * even when the subscriber has already cancelled.
+     * <p>
+     * The task runs under the request's token like a render task. A read that
+     * blocks on the client can not check it, so {@code onCancel} is also run
+     * when the subscriber cancels or the deadline passes, to close the upload
+     * under it.
+     */
+    public <T> Mono<T> submitUpload(RenderToken token, Supplier<T> task, Runnable onCancel) {
+        return Mono.defer(() -> {
+            if (!uploads.tryAcquire()) {
+                rejected.increment();
+                return Mono.error(busy());
+            }
+
+            // Whichever of the task and the cancellation comes first releases the permit
+            var started = new AtomicBoolean();
+
+            var upload = Mono.fromSupplier(() -> {
+                if (!started.compareAndSet(false, true)) {
+                    throw new CancellationException("Upload cancelled");
+                }
+
+                RenderToken.bind(token);
+
+                try {
+                    token.check();
+                    return task.get();
+                } finally {
+                    RenderToken.unbind();
+                    uploads.release();
+                }
+            }).subscribeOn(Schedulers.boundedElastic()).doOnCancel(() -> {
+                token.cancel();
+                onCancel.run();
+
+                if (started.compareAndSet(false, true)) {
+                    uploads.release();
+                }
+            });
+
+            return token.timeout(upload);
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /** Whether {@code error} turned work away before any of it ran, see {@link #submit} */
+    public static boolean isBusy(Throwable error) {
+        return error instanceof Busy;
+    }
+
+    private static ApiError busy() {
+        return new Busy();
+    }
+
+    private static class Busy extends ApiError {
+
+        @Serial
+        private static final long serialVersionUID = 6129475207306815421L;
+
+        Busy() {
+            super(HttpStatus.SERVICE_UNAVAILABLE, "Too many previews in progress, try again later");
+        }
+    }
+
+    private static ThreadFactory threadFactory() {
+        var count = new AtomicInteger();
+
+        return runnable -> {
+            var thread = new Thread(runnable, "render-" + count.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,71 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+
+import org.springframework.http.HttpStatus;
+
+import mindustrytool.mindustrycontentparser.utils.ApiError;
+import reactor.core.publisher.Mono;
+
+/**
+ * Cancellation and deadline of one preview request, created when the request
+ * arrives and handed to every task it runs. The task's thread checks it
+ * between plans, tiles and map rows and gives up as soon as the subscriber is
+ * gone or the deadline has passed.
+ */
+public class RenderToken {
+
+    private static final ThreadLocal<RenderToken> current = new ThreadLocal<>();
+
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    RenderToken(long deadline) {
+        this.deadline = deadline;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void check() {
+        if (cancelled) {
+            throw new CancellationException("Render cancelled");
+        }
+
+        if (System.nanoTime() - deadline > 0) {
+            throw expired();
+        }
+    }
+
+    /** Fails {@code mono} the same way once the deadline passes while nothing checks the token */
+    <T> Mono<T> timeout(Mono<T> mono) {
+        return mono.timeout(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())), Mono.error(RenderToken::expired));
+    }
+
+    /** Checks the token of the render task running on this thread, if any */
+    public static void checkCurrent() {
+        var token = current.get();
+
+        if (token != null) {
+            token.check();
+        }
+    }
+
+    static void bind(RenderToken token) {
+        current.set(token);
+    }
+
+    static void unbind() {
+        current.remove();
+    }
+
+    private static ApiError expired() {
+        return new ApiError(HttpStatus.SERVICE_UNAVAILABLE, "Preview took too long to render");
+    }
+}
@@ -0,0 +1,10 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import mindustrytool.mindustrycontentparser.utils.ImageFormat;
+
+/**
+ * A preview as it is cached: the result without its image and the encoded
+ * image bytes, which are only turned into base64 for json responses.
+ */
+public record RenderedPreview<T>(T result, byte[] image, ImageFormat format) {
+}
@@ -1,22 +1,35 @@
 package mindustrytool.mindustrycontentparser.service;
 
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.util.Arrays;
+import java.util.function.Function;
 import java.util.zip.InflaterInputStream;
 
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 
 import arc.graphics.g2d.Draw;
 import arc.math.geom.Point2;
 import arc.struct.IntMap;
 import arc.struct.Seq;
 import arc.struct.StringMap;
+import arc.util.io.CounterInputStream;
 import arc.util.io.Reads;
+import arc.util.io.Streams;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import mindustry.Vars;
@@ -38,12 +51,19 @@ import mindustry.world.blocks.power.LightBlock;
 import mindustry.world.blocks.sandbox.ItemSource;
 import mindustry.world.blocks.sandbox.LiquidSource;
 import mindustry.world.blocks.storage.Unloader;
+import mindustrytool.mindustrycontentparser.EnvConfig;
+import mindustrytool.mindustrycontentparser.service.PreviewTimings.Stage;
 import mindustrytool.mindustrycontentparser.types.request.SchematicPreviewRequest;
 import mindustrytool.mindustrycontentparser.types.response.SchematicItemRequirementDto;
 import mindustrytool.mindustrycontentparser.types.response.SchematicPreviewResult;
 import mindustrytool.mindustrycontentparser.utils.ApiError;
+import mindustrytool.mindustrycontentparser.utils.CacheMetrics;
+import mindustrytool.mindustrycontentparser.utils.Compositor;
 import mindustrytool.mindustrycontentparser.utils.DrawBatch;
+import mindustrytool.mindustrycontentparser.utils.ImageEncoder;
+import mindustrytool.mindustrycontentparser.utils.Rasters;
 import mindustrytool.mindustrycontentparser.utils.Utils;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Component
@@ -51,24 +71,122 @@ import reactor.core.publisher.Mono;
 @RequiredArgsConstructor
 public class SchematicService {
 
+    private static final String FLOOR = "metal-floor";
+
     private final AssetsService assetsService;
+    private final DrawBatch drawBatch;
+    private final EnvConfig config;
+    private final PreviewCache<RenderedPreview<SchematicPreviewResult>> previews;
+    private final ImageEncoder imageEncoder;
+    private final RenderScheduler renderScheduler;
+    private final PreviewMetrics previewMetrics;
+    private final MeterRegistry registry;
+
+    // One tile high floor band per canvas size and resolution
+    private Cache<BandKey, int[]> floorBands;
+
+    @PostConstruct
+    public void init() {
+        floorBands = Caffeine.newBuilder()//
+                .maximumWeight(config.render().floorCacheSize().toBytes())//
+                .<BandKey, int[]>weigher((key, band) -> band.length * Integer.BYTES)//
+                .recordStats()//
+                .build();
+
+        CacheMetrics.monitor(registry, floorBands, "floor-bands");
+    }
 
-    public Mono<SchematicPreviewResult> getPreview(SchematicPreviewRequest request) {
-        var result = getPreview(Utils.decode(request.getData()));
+    public Mono<RenderedPreview<SchematicPreviewResult>> getPreview(SchematicPreviewRequest request) {
+        assetsService.checkReady();
 
-        return result;
+        var timings = previewMetrics.start("schematic");
+        var token = renderScheduler.token();
+
+        // Decoding, hashing, the cache lookup and the render are one task, the
+        // request is either turned away before any of it or not at all
+        return renderScheduler.submit(token, () -> {
+            long start = System.nanoTime();
+            byte[] data = Utils.decode(request.getData());
+            timings.add(Stage.DECODE, start);
+
+            return getPreview(data, request, token, timings);
+        }).flatMap(Function.identity());
     }
 
-    private Mono<SchematicPreviewResult> getPreview(byte[] data) {
-        var schematic = parseDecodedSchematic(data);
-        BufferedImage image = getSchematicImage(schematic);
+    /** Preview of the raw schematic file, {@code request.data} is ignored */
+    public Mono<RenderedPreview<SchematicPreviewResult>> getPreview(byte[] data, SchematicPreviewRequest request) {
+        assetsService.checkReady();
 
-        var str = Utils.imageToBase64(image);
+        var timings = previewMetrics.start("schematic");
+        var token = renderScheduler.token();
+
+        return renderScheduler.submit(token, () -> getPreview(data, request, token, timings)).flatMap(Function.identity());
+    }
+
+    // Runs in the render task of the request
+    private Mono<RenderedPreview<SchematicPreviewResult>> getPreview(byte[] data, SchematicPreviewRequest request, RenderToken token, PreviewTimings timings) {
+        return previews.get(PreviewCache.key(data, getOptions(request)), token, timings, () -> {
+            long start = System.nanoTime();
+            var schematic = parseDecodedSchematic(data, timings);
+            timings.add(Stage.READ, start);
+
+            return getPreview(schematic, request, timings);
+        }).doOnSuccess(preview -> previewMetrics.record(timings, data.length));
+    }
+
+    /**
+     * Same preview from the raw schematic file, parsed and hashed while it is
+     * uploaded. Reading waits on the client, so the whole request runs under an
+     * upload permit on boundedElastic instead of on the render pool.
+     */
+    public Mono<RenderedPreview<SchematicPreviewResult>> getPreview(Flux<DataBuffer> body, SchematicPreviewRequest request) {
+        assetsService.checkReady();
+
+        var timings = previewMetrics.start("schematic-upload");
+        var token = renderScheduler.token();
+
+        return Mono.defer(() -> {
+            var upload = Utils.toInputStream(body);
+
+            return renderScheduler.submitUpload(token, () -> getPreview(upload, request, token, timings), () -> Streams.close(upload));
+        }).flatMap(Function.identity());
+    }
+
+    private Mono<RenderedPreview<SchematicPreviewResult>> getPreview(InputStream upload, SchematicPreviewRequest request, RenderToken token, PreviewTimings timings) {
+        var digest = PreviewCache.digest();
+        var counter = new CounterInputStream(upload);
+        Schematic schematic;
+
+        try (var input = new DigestInputStream(counter, digest)) {
+            // Includes waiting for the upload to arrive
+            long start = System.nanoTime();
+            schematic = read(StreamUtils.nonClosing(input), timings);
+            timings.add(Stage.READ, start);
+
+            // The rest of the file still counts towards the key
+            input.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new ApiError(HttpStatus.BAD_REQUEST, "Unable to read schematic", e);
+        }
+
+        return previews.get(PreviewCache.key(digest, getOptions(request)), token, timings, () -> getPreview(schematic, request, timings))//
+                .doOnSuccess(preview -> previewMetrics.record(timings, counter.count));
+    }
+
+    private static String getOptions(SchematicPreviewRequest request) {
+        return "scale=" + request.getScale() + ",size=" + request.getSize() + ",format=" + request.getFormat() + ",quality=" + request.getQuality();
+    }
+
+    private RenderedPreview<SchematicPreviewResult> getPreview(Schematic schematic, SchematicPreviewRequest request, PreviewTimings timings) {
+        BufferedImage image = getSchematicImage(schematic, getTilePixels(schematic, request), timings);
+
+        long start = System.nanoTime();
+        byte[] bytes = imageEncoder.encode(image, request.getFormat(), request.getQuality());
+        timings.add(Stage.ENCODE, start);
 
         SchematicPreviewResult result = new SchematicPreviewResult()//
                 .setName(schematic.name())//
                 .setDescription(schematic.description())//
-                .setImage(str)//
                 .setLabels(schematic.labels.list())//
                 .setWidth(schematic.width)//
                 .setHeight(schematic.height)//
@@ -78,18 +196,19 @@ public class SchematicService {
             result.setMod(schematic.mod.name);
         }
 
-        return Mono.just(result);
+        return new RenderedPreview<>(result, bytes, request.getFormat());
     }
 
-    private synchronized Schematic parseDecodedSchematic(byte[] data) {
+    private Schematic parseDecodedSchematic(byte[] data, PreviewTimings timings) {
         try {
-            return read(new ByteArrayInputStream(data));
+            return read(new ByteArrayInputStream(data), timings);
         } catch (IOException e) {
             throw new ApiError(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to read schematic from byte: " + new String(data), e);
         }
     }
 
-    private synchronized Schematic read(InputStream input) throws IOException {
+    // Package-private for the benchmarks, as is getSchematicImage
+    Schematic read(InputStream input, PreviewTimings timings) throws IOException {
         byte[] header = { 'm', 's', 'c', 'h' };
         for (byte b : header) {
             if (input.read() != b) {
@@ -99,7 +218,7 @@ public class SchematicService {
 
         int ver = input.read();
 
-        try (DataInputStream stream = new DataInputStream(new InflaterInputStream(input))) {
+        try (DataInputStream stream = new DataInputStream(timings.inflating(new InflaterInputStream(input)))) {
             short width = stream.readShort(), height = stream.readShort();
             if (width > 1024 || height > 1024)
                 throw new IOException("Invalid schematic: Too large (max possible size is 1024x1024)");
@@ -113,7 +232,10 @@ public class SchematicService {
             String[] labels = null;
 
             try {
-                labels = JsonIO.read(String[].class, map.get("labels", "[]"));
+                // The shared Json instance is not safe for concurrent use
+                synchronized (JsonIO.class) {
+                    labels = JsonIO.read(String[].class, map.get("labels", "[]"));
+                }
             } catch (Exception ignored) {
             }
 
@@ -132,10 +254,14 @@ public class SchematicService {
 
             Seq<Stile> tiles = new Seq<>(total);
             for (int i = 0; i < total; i++) {
+                if ((i & 1023) == 0) {
+                    RenderToken.checkCurrent();
+                }
+
                 Block block = blocks.get(stream.readByte());
                 int position = stream.readInt();
                 Object config = ver == 0 ? //
-                        mapConfig(block, stream.readInt(), position) : TypeIO.readObject(Reads.get(stream));
+                        mapConfig(block, stream.readInt(), position) : TypeIO.readObject(new Reads(stream));
                 byte rotation = stream.readByte();
                 if (block != Blocks.air) {
                     tiles.add(new Stile(block, Point2.x(position), Point2.y(position), config, rotation));
@@ -162,48 +288,273 @@ public class SchematicService {
         return null;
     }
 
-    private synchronized BufferedImage getSchematicImage(Schematic schematic) {
+    /** Resolution of the preview, the size is fitted by whole pixels per tile */
+    static int getTilePixels(Schematic schematic, SchematicPreviewRequest request) {
+        if (request.getScale() != null) {
+            return request.getScale();
+        }
+
+        if (request.getSize() != null) {
+            int size = 2 + Math.max(Math.max(schematic.width, schematic.height), 16);
+
+            return Math.max(1, Math.min(32, request.getSize() / size));
+        }
+
+        return 32;
+    }
+
+    BufferedImage getSchematicImage(Schematic schematic, int pixels, PreviewTimings timings) {
+        return getSchematicImage(schematic, pixels, config.render().memoryBudget().toBytes(), config.render().tileSize(), timings);
+    }
+
+    // The budget and tile size are passed in so tests can force a tiled render
+    BufferedImage getSchematicImage(Schematic schematic, int pixels, long budget, int tileSize, PreviewTimings timings) {
 
         log.info("Generate image for: {}", schematic.name());
 
-        BufferedImage image = new BufferedImage(schematic.width * 32, schematic.height * 32, BufferedImage.TYPE_INT_ARGB);
         Seq<BuildPlan> plans = schematic.tiles.map(t -> new BuildPlan(t.x, t.y, t.rotation, t.block, t.config));
 
-        DrawBatch.currentGraphics = image.createGraphics();
-        DrawBatch.currentImage = image;
+        int size = 2 + Math.max(Math.max(schematic.width, schematic.height), 16);
+        final int offX = (size - schematic.width) / 2;
+        final int offY = (size - schematic.height) / 2;
+
+        long canvas = (long) size * pixels;
 
-        Draw.reset();
-        plans.each(plan -> Drawf.squareShadow(plan.drawx(), plan.drawy(), plan.block.size * 16f, 0.8f));
-        plans.each(req -> {
-            req.animScale = 1f;
-            req.worldContext = false;
-            req.block.drawPlanRegion(req, plans::each);
+        // Schematic image plus background at the requested resolution
+        if (((long) schematic.width * pixels * schematic.height * pixels + canvas * canvas) * Integer.BYTES > budget) {
+            return getTiledImage(schematic, plans, size, pixels, offX, offY, budget, tileSize, timings);
+        }
+
+        BufferedImage image = new BufferedImage(schematic.width * pixels, schematic.height * pixels, BufferedImage.TYPE_INT_ARGB);
+
+        try (var context = DrawBatch.begin(image)) {
+            context.setTilePixels(pixels);
+            timings.time(Stage.DRAW, () -> drawPlans(plans, plans));
+        }
+
+        long start = System.nanoTime();
+        BufferedImage background = createBackground(size, pixels);
+
+        Compositor.blit(background, image, offX * pixels, offY * pixels, 0, 0, image.getWidth(), image.getHeight(), 0);
+        timings.add(Stage.COMPOSITE, start);
+
+        log.debug("Assets cache: {}", assetsService.cacheStats());
+
+        return background;
+    }
+
+    /**
+     * Draws the visible plans, neighbours are still looked up in all of them
+     * so conveyors and the like join up across tile edges.
+     */
+    private void drawPlans(Seq<BuildPlan> plans, Seq<BuildPlan> visible) {
+        drawBatch.drawQueued(() -> {
             Draw.reset();
+            visible.each(plan -> Drawf.squareShadow(plan.drawx(), plan.drawy(), plan.block.size * 16f, 0.8f));
+            visible.each(req -> {
+                RenderToken.checkCurrent();
+                req.animScale = 1f;
+                req.worldContext = false;
+                req.block.drawPlanRegion(req, plans::each);
+                Draw.reset();
+            });
+            visible.each(plan -> plan.block.drawPlanConfigTop(plan, plans::each));
         });
-        plans.each(plan -> plan.block.drawPlanConfigTop(plan, plans::each));
+    }
 
-        int size = 2 + Math.max(Math.max(schematic.width, schematic.height), 16);
-        final int offX = (size - schematic.width) / 2;
-        final int offY = (size - schematic.height) / 2;
+    private void drawFloor(int size) {
+        drawBatch.drawQueued(() -> {
+            Draw.reset();
+            for (int x = 0; x < size; x++)
+                for (int y = 0; y < size; y++)
+                    Draw.rect(FLOOR, x * 8f, y * 8f);
+        });
+    }
+
+    /**
+     * Renders the canvas one tile at a time straight onto the floor and box
+     * filters every tile into the output, which is shrunk by an integer factor
+     * until output and tile fit in the memory budget.
+     */
+    private BufferedImage getTiledImage(Schematic schematic, Seq<BuildPlan> plans, int size, int pixels, int offX, int offY, long budget, int maxTileSize, PreviewTimings timings) {
+        int canvas = size * pixels;
+        int tileSize = Math.min(canvas, maxTileSize);
+        int scale = 1;
+
+        while (scale < canvas && (scaledBytes(canvas, scale) + (long) tileSize * tileSize * Integer.BYTES) > budget) {
+            scale++;
+        }
+
+        // Tiles start on output pixel boundaries
+        tileSize = Math.max(scale, tileSize / scale * scale);
+
+        log.info("Tiled render for: {}, {}px canvas in {}px tiles, downsampled {}x", schematic.name(), canvas, tileSize, scale);
+
+        int outputSize = (canvas + scale - 1) / scale;
+        BufferedImage output = new BufferedImage(outputSize, outputSize, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage tile = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+        int[] tileData = Rasters.data(tile);
 
-        BufferedImage background = new BufferedImage(size * 32, size * 32, BufferedImage.TYPE_INT_ARGB);
+        int[] band = getFloorBand(size, pixels);
+        int[] bounds = getPlanBounds(plans, pixels, schematic.height * pixels, offX * pixels, offY * pixels);
+        Seq<BuildPlan> visible = new Seq<>();
 
-        DrawBatch.currentGraphics.dispose();
-        DrawBatch.currentGraphics = background.createGraphics();
-        DrawBatch.currentImage = background;
+        for (int tileY = 0; tileY < canvas; tileY += tileSize) {
+            for (int tileX = 0; tileX < canvas; tileX += tileSize) {
+                RenderToken.checkCurrent();
 
-        Draw.reset();
-        for (int x = 0; x < size; x++)
-            for (int y = 0; y < size; y++)
-                Draw.rect("metal-floor", x * 8f, y * 8f);
+                int width = Math.min(tileSize, canvas - tileX);
+                int height = Math.min(tileSize, canvas - tileY);
+                long start = System.nanoTime();
 
-        AffineTransform transform = new AffineTransform();
-        transform.translate(offX * 32, offY * 32);
-        DrawBatch.currentGraphics.setTransform(transform);
-        DrawBatch.currentGraphics.drawImage(image, 0, 0, null);
+                if (band != null) {
+                    for (int y = 0; y < height; y++) {
+                        System.arraycopy(band, ((tileY + y) % pixels) * canvas + tileX, tileData, y * tileSize, width);
+                    }
+                } else {
+                    Arrays.fill(tileData, 0);
+
+                    try (var context = DrawBatch.begin(tile)) {
+                        context.setTilePixels(pixels);
+                        context.canvasHeight = canvas;
+                        context.offsetX = -tileX;
+                        context.offsetY = -tileY;
+
+                        drawFloor(size);
+                    }
+                }
+
+                timings.add(Stage.COMPOSITE, start);
+                visible.clear();
+
+                for (int i = 0; i < plans.size; i++) {
+                    int b = i * 4;
+
+                    if (bounds[b + 2] >= tileX && bounds[b] < tileX + width && bounds[b + 3] >= tileY && bounds[b + 1] < tileY + height) {
+                        visible.add(plans.get(i));
+                    }
+                }
 
-        assetsService.reset();
+                if (!visible.isEmpty()) {
+                    try (var context = DrawBatch.begin(tile)) {
+                        context.setTilePixels(pixels);
+                        context.canvasHeight = schematic.height * pixels;
+                        context.offsetX = offX * pixels - tileX;
+                        context.offsetY = offY * pixels - tileY;
+
+                        timings.time(Stage.DRAW, () -> drawPlans(plans, visible));
+                    }
+                }
+
+                start = System.nanoTime();
+                Rasters.downsample(tileData, 0, tileSize, false, width, height, Rasters.data(output), (tileY / scale) * outputSize + tileX / scale, outputSize, scale);
+                timings.add(Stage.COMPOSITE, start);
+            }
+        }
+
+        log.debug("Assets cache: {}", assetsService.cacheStats());
+
+        return output;
+    }
+
+    private static long scaledBytes(int canvas, int scale) {
+        long side = (canvas + scale - 1) / scale;
+
+        return side * side * Integer.BYTES;
+    }
+
+    /**
+     * Canvas pixel bounds (left, top, right, bottom) of everything a plan may
+     * draw: its shadow and, for bridges, drivers and nodes, the links to its
+     * targets.
+     */
+    private static int[] getPlanBounds(Seq<BuildPlan> plans, int pixels, int height, int offsetX, int offsetY) {
+        int[] bounds = new int[plans.size * 4];
+
+        for (int i = 0; i < plans.size; i++) {
+            var plan = plans.get(i);
+            int x = (int) ((plan.drawx() + 4) * pixels / 8) + offsetX;
+            int y = height - (int) ((plan.drawy() + 4) * pixels / 8) + offsetY;
+            int reach = (plan.block.size + 1) * pixels * 2;
+
+            int left = x - reach, top = y - reach, right = x + reach, bottom = y + reach;
+
+            Point2[] links = plan.config instanceof Point2 point ? new Point2[] { point }
+                    : plan.config instanceof Point2[] points ? points : new Point2[0];
+
+            for (var link : links) {
+                left = Math.min(left, x + link.x * pixels - reach);
+                right = Math.max(right, x + link.x * pixels + reach);
+                top = Math.min(top, y - link.y * pixels - reach);
+                bottom = Math.max(bottom, y - link.y * pixels + reach);
+            }
+
+            bounds[i * 4] = left;
+            bounds[i * 4 + 1] = top;
+            bounds[i * 4 + 2] = right;
+            bounds[i * 4 + 3] = bottom;
+        }
+
+        return bounds;
+    }
+
+    private BufferedImage createBackground(int size, int pixels) {
+        BufferedImage background = new BufferedImage(size * pixels, size * pixels, BufferedImage.TYPE_INT_ARGB);
+        int[] band = getFloorBand(size, pixels);
+
+        if (band == null) {
+            try (var context = DrawBatch.begin(background)) {
+                context.setTilePixels(pixels);
+
+                drawFloor(size);
+            }
+
+            return background;
+        }
+
+        // The floor repeats every tile, so the whole background is copies of one band
+        int[] data = Rasters.data(background);
+
+        for (int offset = 0; offset < data.length; offset += band.length) {
+            System.arraycopy(band, 0, data, offset, band.length);
+        }
 
         return background;
     }
+
+    /** One tile high row of floor across the canvas, null when the floor sprite does not match the tile size */
+    private int[] getFloorBand(int size, int pixels) {
+        BufferedImage floor = assetsService.getAssetsByName(FLOOR, AssetsService.mipLevel(pixels));
+
+        if (floor.getWidth() != pixels || floor.getHeight() != pixels) {
+            return null;
+        }
+
+        return floorBands.get(new BandKey(size, pixels), key -> createFloorBand(floor, key.size(), key.pixels()));
+    }
+
+    private static int[] createFloorBand(BufferedImage floor, int size, int pixels) {
+        int width = size * pixels;
+        int[] band = new int[width * pixels];
+        int[] src = Rasters.data(floor);
+        int offset = Rasters.offset(floor), stride = Rasters.stride(floor);
+
+        for (int y = 0; y < pixels; y++) {
+            int row = y * width;
+
+            for (int x = 0; x < pixels; x++) {
+                int pixel = src[offset + y * stride + x];
+                band[row + x] = floor.isAlphaPremultiplied() ? Rasters.straight(pixel) : pixel;
+            }
+
+            for (int x = pixels; x < width; x += pixels) {
+                System.arraycopy(band, row, band, row + x, pixels);
+            }
+        }
+
+        return band;
+    }
+
+    private record BandKey(int size, int pixels) {
+    }
 }
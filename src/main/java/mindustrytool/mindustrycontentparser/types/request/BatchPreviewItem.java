@@ -0,0 +1,27 @@
+package mindustrytool.mindustrycontentparser.types.request;
+
+import lombok.Data;
+import mindustrytool.mindustrycontentparser.utils.ImageFormat;
+
+@Data
+public class BatchPreviewItem {
+
+    public enum Type {
+        SCHEMATIC, MAP
+    }
+
+    // Echoed back with the result, results arrive in completion order
+    private String id;
+
+    private Type type;
+
+    // The raw file, base64 in json
+    private byte[] data;
+
+    // Same options as the single preview requests
+    private Float scale;
+    private Integer size;
+    private ImageFormat format = ImageFormat.WEBP;
+    private Float quality;
+    private Boolean metadata;
+}
@@ -1,11 +1,36 @@
 package mindustrytool.mindustrycontentparser.types.request;
 
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
 import lombok.Data;
+import mindustrytool.mindustrycontentparser.utils.ImageFormat;
 
 @Data
 public class MapPreviewRequest {
-    @NotNull
+    // Base64 of the map file, not set when the file is the request body
     private byte[] data;
 
+    // Only name, author, description, tags and size, without the image
+    private Boolean metadata;
+
+    // Pixels per tile, below 1 several tiles are averaged into a pixel
+    @Positive
+    @DecimalMax("32")
+    private Float scale;
+
+    // Longest side of the preview in pixels, used when scale is not set
+    @Min(1)
+    private Integer size;
+
+    @NotNull
+    private ImageFormat format = ImageFormat.WEBP;
+
+    // Encoder quality from 0 to 1, the format's default when not set
+    @DecimalMin("0")
+    @DecimalMax("1")
+    private Float quality;
+
 }
@@ -1,8 +1,32 @@
 package mindustrytool.mindustrycontentparser.types.request;
 
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
 import lombok.Data;
+import mindustrytool.mindustrycontentparser.utils.ImageFormat;
 
 @Data
 public class SchematicPreviewRequest {
+    // Base64 of the schematic file, not set when the file is the request body
     private byte[] data;
+
+    // Pixels per tile, 32 when neither this nor size is set
+    @Min(1)
+    @Max(32)
+    private Integer scale;
+
+    // Longest side of the preview in pixels, used when scale is not set
+    @Min(1)
+    private Integer size;
+
+    @NotNull
+    private ImageFormat format = ImageFormat.WEBP;
+
+    // Encoder quality from 0 to 1, the format's default when not set
+    @DecimalMin("0")
+    @DecimalMax("1")
+    private Float quality;
 }
@@ -0,0 +1,8 @@
+package mindustrytool.mindustrycontentparser.types.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/** One line of a batch response, either the preview or the error of that item */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchPreviewResult(String id, int index, int status, PreviewResponse<?> result, String message) {
+}
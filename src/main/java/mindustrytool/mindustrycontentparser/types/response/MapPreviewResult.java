@@ -10,5 +10,5 @@ public class MapPreviewResult {
     public String name, author, description;
     public int height, width;
     public ObjectMap<String, String> tags = new ObjectMap<>();
-    public String image;
+    public MapStatsDto stats;
 }
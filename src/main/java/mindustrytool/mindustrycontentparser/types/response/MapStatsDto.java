@@ -0,0 +1,13 @@
+package mindustrytool.mindustrycontentparser.types.response;
+
+import java.util.List;
+import java.util.Map;
+
+public record MapStatsDto(Map<String, Integer> ores, Map<String, Integer> buildings, List<Position> spawns, List<Core> cores) {
+
+    public record Position(int x, int y) {
+    }
+
+    public record Core(String block, String team, int x, int y) {
+    }
+}
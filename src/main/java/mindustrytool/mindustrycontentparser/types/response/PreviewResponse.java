@@ -0,0 +1,7 @@
+package mindustrytool.mindustrycontentparser.types.response;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+
+/** Json form of a preview, the result's fields with the image as base64 next to them */
+public record PreviewResponse<T>(@JsonUnwrapped T result, String image) {
+}
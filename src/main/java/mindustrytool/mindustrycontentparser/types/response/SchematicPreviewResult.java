@@ -11,7 +11,6 @@ public class SchematicPreviewResult {
 
     String name;
     String description;
-    String image;
     int width, height;
     List<String> labels;
     String mod;
@@ -0,0 +1,20 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+public class CacheMetrics {
+
+    /** Hit, miss and eviction meters plus {@code cache.weight}, the bytes a weighted cache holds */
+    public static void monitor(MeterRegistry registry, Cache<?, ?> cache, String name) {
+        CaffeineCacheMetrics.monitor(registry, cache, name);
+
+        cache.policy().eviction().ifPresent(eviction -> Gauge.builder("cache.weight", cache, c -> eviction.weightedSize().orElse(0))//
+                .tag("cache", name)//
+                .baseUnit("bytes")//
+                .register(registry));
+    }
+}
@@ -1,55 +1,173 @@
 package mindustrytool.mindustrycontentparser.utils;
 
+import arc.graphics.Color;
 import arc.graphics.Texture;
 import arc.graphics.g2d.SpriteBatch;
 import arc.graphics.g2d.TextureAtlas.AtlasRegion;
 import arc.graphics.g2d.TextureRegion;
 import arc.math.Mathf;
-import arc.struct.ObjectMap;
-import arc.util.Tmp;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import mindustrytool.mindustrycontentparser.EnvConfig;
 import mindustrytool.mindustrycontentparser.service.AssetsService;
+import mindustrytool.mindustrycontentparser.service.RenderToken;
 
-import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import static arc.graphics.Color.white;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
+/**
+ * Software batch behind {@code Core.batch}. All drawing state lives in the
+ * {@link RenderContext} bound to the calling thread, so several renders can
+ * run at once through the same batch. Mindustry's own draw code goes through
+ * {@link #drawQueued(Runnable)}.
+ */
+@Slf4j
 @Component
 public class DrawBatch extends SpriteBatch {
 
-    public static final ObjectMap<String, BufferedImage> regions = new ObjectMap<>();
-    public static BufferedImage currentImage;
-    public static Graphics2D currentGraphics;
+    private static final int WHITE = 0xffffffff;
+
+    private static final ThreadLocal<RenderContext> context = new ThreadLocal<>();
+
+    // Mindustry's draw code keeps scratch state in final statics: Tmp, Draw
+    // scales, the autotiler's blend arrays. Only one thread may run it at a time
+    private static final Object MINDUSTRY_LOCK = new Object();
 
     @Autowired
     private AssetsService schematicAssetsService;
 
+    @Autowired
+    private EnvConfig config;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    // Recolored sprites by (region, packed tint), weighted by pixel bytes
+    private Cache<TintKey, BufferedImage> tinted;
+
     public DrawBatch() {
         super(0);
     }
 
+    @PostConstruct
+    public void init() {
+        tinted = Caffeine.newBuilder()//
+                .maximumWeight(config.assets().tintCacheSize().toBytes())//
+                .<TintKey, BufferedImage>weigher((key, image) -> AssetsService.imageBytes(image))//
+                .recordStats()//
+                .build();
+
+        CacheMetrics.monitor(registry, tinted, "tinted-sprites");
+    }
+
+    /** Binds a new context drawing into {@code image} to the current thread until it is closed */
+    public static RenderContext begin(BufferedImage image) {
+        var renderContext = new RenderContext(image, context.get());
+        context.set(renderContext);
+
+        return renderContext;
+    }
+
+    static void end(RenderContext renderContext) {
+        if (renderContext.previous != null) {
+            context.set(renderContext.previous);
+        } else {
+            context.remove();
+        }
+    }
+
+    public static RenderContext current() {
+        var renderContext = context.get();
+
+        if (renderContext == null) {
+            throw new IllegalStateException("No render context bound to " + Thread.currentThread().getName());
+        }
+
+        return renderContext;
+    }
+
+    /**
+     * Runs Mindustry draw code for the context bound to this thread. It runs one
+     * thread at a time and only queues its sprites, which are tinted and
+     * composited once the lock is released, alongside other renders.
+     */
+    public void drawQueued(Runnable draw) {
+        var renderContext = current();
+        var queue = renderContext.queue;
+
+        synchronized (MINDUSTRY_LOCK) {
+            renderContext.queueing = true;
+
+            try {
+                draw.run();
+            } finally {
+                renderContext.queueing = false;
+            }
+        }
+
+        try {
+            for (int i = 0; i < queue.size; i++) {
+                if ((i & 1023) == 0) {
+                    RenderToken.checkCurrent();
+                }
+
+                var sprite = queue.get(i);
+                drawSprite(renderContext, sprite.name(), sprite.rgba(), sprite.x(), sprite.y(), sprite.originX(), sprite.originY(), sprite.width(), sprite.height(), sprite.rotation());
+            }
+        } finally {
+            queue.clear();
+        }
+    }
+
     @Override
     protected void draw(TextureRegion region, float x, float y, float originX, float originY, float width, float height, float rotation) {
+        var renderContext = current();
+        String name = ((AtlasRegion) region).name;
+        int rgba = packedColor(renderContext.color);
+
+        if (renderContext.queueing) {
+            renderContext.queue.add(new QueuedSprite(name, rgba, x, y, originX, originY, width, height, rotation));
+            return;
+        }
+
+        drawSprite(renderContext, name, rgba, x, y, originX, originY, width, height, rotation);
+    }
+
+    private void drawSprite(RenderContext renderContext, String name, int rgba, float x, float y, float originX, float originY, float width, float height, float rotation) {
+        var image = renderContext.image;
+        var transform = renderContext.transform;
+        float scale = renderContext.scale;
+
         x += 4;
         y += 4;
-        x *= 4;
-        y *= 4;
-
-        AffineTransform transform = new AffineTransform();
-        transform.translate(x, currentImage.getHeight() - height * 4f - y);
-        transform.rotate(-rotation * Mathf.degRad, originX * 4, originY * 4);
+        x *= scale;
+        y *= scale;
 
         try {
+            int level = renderContext.level;
+            BufferedImage sprite = getTinted(name, level, schematicAssetsService.getAssetsByName(name, level), rgba);
+
+            float left = x + renderContext.offsetX;
+            float top = renderContext.canvasHeight - height * scale - y + renderContext.offsetY;
+
+            // Axis-aligned integer-scale sprites are blitted straight into the raster
+            if (Compositor.blit(image, sprite, left, top, originX * scale, originY * scale, width * scale, height * scale, rotation)) {
+                return;
+            }
 
-            currentGraphics.setTransform(transform);
-            BufferedImage image = schematicAssetsService.getAssetsByName(((AtlasRegion) region).name);
-            currentGraphics.drawImage(recolorImage(image), 0, 0, Math.min((int) Math.ceil(width * 4), currentImage.getWidth()), Math.min((int) Math.ceil(height * 4), currentImage.getHeight()), null);
+            transform.setToTranslation(left, top);
+            transform.rotate(-rotation * Mathf.degRad, originX * scale, originY * scale);
+
+            renderContext.graphics.setTransform(transform);
+            renderContext.graphics.drawImage(sprite, 0, 0, Math.min((int) Math.ceil(width * scale), image.getWidth()), Math.min((int) Math.ceil(height * scale), image.getHeight()), null);
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Can not draw sprite " + name, e);
         }
     }
 
@@ -57,16 +175,143 @@ public class DrawBatch extends SpriteBatch {
     protected void draw(Texture texture, float[] spriteVertices, int offset, int count) {
     }
 
+    @Override
+    protected void setColor(Color tint) {
+        var renderContext = context.get();
+
+        if (renderContext == null) {
+            super.setColor(tint);
+            return;
+        }
+
+        renderContext.color.set(tint);
+        renderContext.colorPacked = tint.toFloatBits();
+    }
+
+    @Override
+    protected void setColor(float r, float g, float b, float a) {
+        var renderContext = context.get();
+
+        if (renderContext == null) {
+            super.setColor(r, g, b, a);
+            return;
+        }
+
+        renderContext.color.set(r, g, b, a);
+        renderContext.colorPacked = renderContext.color.toFloatBits();
+    }
+
+    @Override
+    protected Color getColor() {
+        var renderContext = context.get();
+
+        return renderContext == null ? super.getColor() : renderContext.color;
+    }
+
+    @Override
+    protected void setPackedColor(float packedColor) {
+        var renderContext = context.get();
+
+        if (renderContext == null) {
+            super.setPackedColor(packedColor);
+            return;
+        }
+
+        unpack(packedColor, renderContext.color);
+        renderContext.colorPacked = packedColor;
+    }
+
+    @Override
+    protected float getPackedColor() {
+        var renderContext = context.get();
+
+        return renderContext == null ? super.getPackedColor() : renderContext.colorPacked;
+    }
+
+    @Override
+    protected void setMixColor(Color tint) {
+        var renderContext = context.get();
+
+        if (renderContext == null) {
+            super.setMixColor(tint);
+            return;
+        }
+
+        renderContext.mixColor.set(tint);
+        renderContext.mixColorPacked = tint.toFloatBits();
+    }
+
+    @Override
+    protected void setMixColor(float r, float g, float b, float a) {
+        var renderContext = context.get();
+
+        if (renderContext == null) {
+            super.setMixColor(r, g, b, a);
+            return;
+        }
+
+        renderContext.mixColor.set(r, g, b, a);
+        renderContext.mixColorPacked = renderContext.mixColor.toFloatBits();
+    }
+
+    @Override
+    protected Color getMixColor() {
+        var renderContext = context.get();
+
+        return renderContext == null ? super.getMixColor() : renderContext.mixColor;
+    }
+
+    @Override
+    protected void setPackedMixColor(float packedColor) {
+        var renderContext = context.get();
+
+        if (renderContext == null) {
+            super.setPackedMixColor(packedColor);
+            return;
+        }
+
+        unpack(packedColor, renderContext.mixColor);
+        renderContext.mixColorPacked = packedColor;
+    }
+
+    @Override
+    protected float getPackedMixColor() {
+        var renderContext = context.get();
+
+        return renderContext == null ? super.getPackedMixColor() : renderContext.mixColorPacked;
+    }
+
     public BufferedImage recolorImage(BufferedImage image) {
-        if (color.equals(white))
+        int rgba = packedColor(getColor());
+
+        if (rgba == WHITE)
             return image;
 
-        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        return Rasters.tint(image, rgba);
+    }
+
+    private BufferedImage getTinted(String name, int level, BufferedImage image, int rgba) {
+        if (rgba == WHITE)
+            return image;
+
+        return tinted.get(new TintKey(name, level, rgba), key -> Rasters.tint(image, key.rgba()));
+    }
 
-        for (int x = 0; x < copy.getWidth(); x++)
-            for (int y = 0; y < copy.getHeight(); y++)
-                copy.setRGB(x, y, Tmp.c1.argb8888(image.getRGB(x, y)).mul(color).argb8888());
+    private static int packedColor(Color color) {
+        return Rasters.pack(color.r, color.g, color.b, color.a);
+    }
+
+    // Packed batch colors are abgr8888 stored in float bits
+    private static void unpack(float packedColor, Color color) {
+        int abgr = Float.floatToRawIntBits(packedColor);
+
+        color.set((abgr & 0xff) / 255f, ((abgr >>> 8) & 0xff) / 255f, ((abgr >>> 16) & 0xff) / 255f, ((abgr >>> 24) & 0xff) / 255f);
+    }
+
+    private record TintKey(String region, int level, int rgba) {
+    }
 
-        return copy;
+    /** A sprite drawn by Mindustry's code, in world units */
+    record QueuedSprite(String name, int rgba, float x, float y, float originX, float originY, float width, float height, float rotation) {
     }
 }
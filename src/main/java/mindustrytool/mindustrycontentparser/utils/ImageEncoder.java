@@ -0,0 +1,103 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Image encoding without a global lock. ImageIO writers are stateful, so each
+ * thread keeps its own writer per format and reuses it for every image it
+ * encodes.
+ */
+@Component
+@RequiredArgsConstructor
+public class ImageEncoder {
+
+    private static final ThreadLocal<EnumMap<ImageFormat, ImageWriter>> writers = ThreadLocal.withInitial(() -> new EnumMap<>(ImageFormat.class));
+
+    private final MeterRegistry registry;
+
+    /** Encodes and records the encode time and output size per format */
+    public byte[] encode(BufferedImage image, ImageFormat format, Float quality) {
+        var sample = Timer.start(registry);
+        byte[] bytes = write(image, format, quality);
+
+        sample.stop(registry.timer("image.encode", "format", format.name()));
+        DistributionSummary.builder("image.encode.bytes")//
+                .baseUnit("bytes")//
+                .tag("format", format.name())//
+                .register(registry)//
+                .record(bytes.length);
+
+        return bytes;
+    }
+
+    /**
+     * Encodes with the calling thread's writer. Without a quality the writer's
+     * defaults are used, which for WebP is the lossy mode.
+     */
+    public static byte[] write(BufferedImage image, ImageFormat format, Float quality) {
+        var writer = writers.get().computeIfAbsent(format, ImageEncoder::createWriter);
+        var output = new ByteArrayOutputStream();
+
+        try (var stream = new MemoryCacheImageOutputStream(output)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), getParam(writer, format, quality));
+        } catch (IOException e) {
+            throw new ApiError(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to write image to bytes", e);
+        } finally {
+            writer.reset();
+        }
+
+        return output.toByteArray();
+    }
+
+    private static ImageWriteParam getParam(ImageWriter writer, ImageFormat format, Float quality) {
+        if (quality == null && format != ImageFormat.WEBP_LOSSLESS) {
+            return null;
+        }
+
+        var param = writer.getDefaultWriteParam();
+
+        if (!param.canWriteCompressed()) {
+            return param;
+        }
+
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+
+        if (format.compressionType != null) {
+            param.setCompressionType(format.compressionType);
+        }
+
+        if (quality != null) {
+            param.setCompressionQuality(quality);
+        }
+
+        return param;
+    }
+
+    private static ImageWriter createWriter(ImageFormat format) {
+        var iterator = ImageIO.getImageWritersByMIMEType(format.mediaType.toString());
+
+        if (!iterator.hasNext()) {
+            throw new ApiError(HttpStatus.INTERNAL_SERVER_ERROR, "No image writer for " + format);
+        }
+
+        return iterator.next();
+    }
+}
@@ -0,0 +1,20 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import org.springframework.http.MediaType;
+
+public enum ImageFormat {
+    /** Lossy WebP, the quality trades size for detail */
+    WEBP("image/webp", "Lossy"),
+    /** Lossless WebP, the quality trades encode time for size */
+    WEBP_LOSSLESS("image/webp", "Lossless"),
+    /** PNG, the quality trades encode time for size */
+    PNG("image/png", null);
+
+    public final MediaType mediaType;
+    public final String compressionType;
+
+    ImageFormat(String mediaType, String compressionType) {
+        this.mediaType = MediaType.parseMediaType(mediaType);
+        this.compressionType = compressionType;
+    }
+}
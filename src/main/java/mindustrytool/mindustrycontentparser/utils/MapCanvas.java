@@ -0,0 +1,178 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Map preview pixels drawn tile by tile straight into the image's int[]
+ * raster, with y pointing up. Either every tile covers {@code scale} pixels or,
+ * for maps too large for that, every pixel averages {@code step} x
+ * {@code step} tiles. Every draw clips its rectangle once instead of checking
+ * each pixel.
+ */
+public class MapCanvas {
+
+    public final BufferedImage image;
+
+    private final int[] pixels;
+    private final int width, height, scale, step;
+
+    // Alpha and alpha weighted color sums of the output row being averaged
+    private final long[] sums;
+    private final int[] counts;
+    private int sumRow = -1;
+
+    public MapCanvas(int tilesWidth, int tilesHeight, int scale, int step) {
+        this.scale = scale;
+        this.step = step;
+
+        if (step > 1) {
+            this.width = (tilesWidth + step - 1) / step;
+            this.height = (tilesHeight + step - 1) / step;
+            this.sums = new long[width * 4];
+            this.counts = new int[width];
+        } else {
+            this.width = tilesWidth * scale + scale;
+            this.height = tilesHeight * scale + scale;
+            this.sums = null;
+            this.counts = null;
+        }
+
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this.pixels = Rasters.data(image);
+    }
+
+    /**
+     * Canvas at {@code scale} pixels per tile, below 1 several tiles share a
+     * pixel. The resolution is lowered until the image fits in
+     * {@code maxBytes}.
+     */
+    public static MapCanvas create(int tilesWidth, int tilesHeight, float scale, long maxBytes) {
+        int pixels = scale >= 1 ? (int) scale : 1;
+        int step = scale >= 1 ? 1 : (int) Math.ceil(1 / scale);
+
+        while (bytes(tilesWidth, tilesHeight, pixels, step) > maxBytes && step < Math.max(tilesWidth, tilesHeight)) {
+            if (pixels > 1) {
+                pixels--;
+            } else {
+                step++;
+            }
+        }
+
+        return new MapCanvas(tilesWidth, tilesHeight, pixels, step);
+    }
+
+    private static long bytes(int tilesWidth, int tilesHeight, int scale, int step) {
+        if (step > 1) {
+            long width = (tilesWidth + step - 1) / step, height = (tilesHeight + step - 1) / step;
+
+            return (width * height + width * 9) * Integer.BYTES;
+        }
+
+        return (tilesWidth + 1L) * scale * (tilesHeight + 1L) * scale * Integer.BYTES;
+    }
+
+    /** Fills one tile, tiles must arrive row by row when they are averaged */
+    public void fillTile(int x, int y, int argb) {
+        if (step == 1) {
+            fill(x * scale, height - 2 * scale - y * scale + 1, scale, scale, argb);
+            return;
+        }
+
+        int row = y / step;
+
+        if (row != sumRow) {
+            flush();
+            sumRow = row;
+        }
+
+        int column = x / step, i = column * 4;
+        long alpha = argb >>> 24;
+
+        sums[i] += alpha;
+        sums[i + 1] += ((argb >> 16) & 0xff) * alpha;
+        sums[i + 2] += ((argb >> 8) & 0xff) * alpha;
+        sums[i + 3] += (argb & 0xff) * alpha;
+        counts[column]++;
+    }
+
+    /** Writes out the last averaged row, call once every tile is filled */
+    public void flush() {
+        if (step == 1 || sumRow < 0) {
+            return;
+        }
+
+        int row = (height - 1 - sumRow) * width;
+
+        for (int x = 0, i = 0; x < width; x++, i += 4) {
+            long a = sums[i];
+
+            if (a != 0) {
+                pixels[row + x] = (int) (a / counts[x]) << 24 | (int) (sums[i + 1] / a) << 16 | (int) (sums[i + 2] / a) << 8 | (int) (sums[i + 3] / a);
+            }
+        }
+
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        sumRow = -1;
+    }
+
+    /** Fills a block of {@code size} tiles centered on tile (x, y) */
+    public void fillBlock(int x, int y, int size, int argb) {
+        if (step > 1) {
+            // Every pixel the footprint touches, rounded down past the map's edges too
+            int left = x - (size - 1) / 2, bottom = y - (size - 1) / 2;
+            int x0 = Math.floorDiv(left, step), x1 = Math.floorDiv(left + size - 1, step);
+            int y0 = Math.floorDiv(bottom, step), y1 = Math.floorDiv(bottom + size - 1, step);
+
+            fill(x0, height - 1 - y1, x1 - x0 + 1, y1 - y0 + 1, argb);
+            return;
+        }
+
+        int pixelSize = size * scale;
+        int offset = -(pixelSize - scale) / 2;
+
+        fill(x * scale + offset, height - scale - (y * scale + offset) - pixelSize + 1, pixelSize, pixelSize, argb);
+    }
+
+    /** Blends a one pixel outline around tile (x, y), sharing its edges with the neighbours */
+    public void outlineTile(int x, int y, int argb) {
+        // Tiles smaller than a pixel have no edges to draw
+        if (step > 1) {
+            return;
+        }
+
+        int left = x * scale, top = height - 2 * scale - y * scale;
+
+        blend(left, top, scale + 1, 1, argb);
+        blend(left, top + scale, scale + 1, 1, argb);
+        blend(left, top + 1, 1, scale - 1, argb);
+        blend(left + scale, top + 1, 1, scale - 1, argb);
+    }
+
+    private void fill(int left, int top, int w, int h, int argb) {
+        int x0 = Math.max(left, 0), y0 = Math.max(top, 0);
+        int x1 = Math.min(left + w, width), y1 = Math.min(top + h, height);
+
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+
+            for (int x = x0; x < x1; x++) {
+                pixels[row + x] = argb;
+            }
+        }
+    }
+
+    private void blend(int left, int top, int w, int h, int argb) {
+        int x0 = Math.max(left, 0), y0 = Math.max(top, 0);
+        int x1 = Math.min(left + w, width), y1 = Math.min(top + h, height);
+
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+
+            for (int x = x0; x < x1; x++) {
+                pixels[row + x] = Compositor.blend(argb, pixels[row + x]);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import org.springframework.stereotype.Component;
+
+import arc.graphics.Color;
+import mindustry.Vars;
+import mindustry.content.Blocks;
+import mindustry.game.Team;
+import mindustry.io.MapIO;
+import mindustry.world.Block;
+
+/**
+ * Map preview colors as argb8888, indexed by content id. Block map colors are
+ * fixed once content is loaded, so they are computed up front instead of going
+ * through {@link MapIO#colorFor} for every tile.
+ */
+@Component
+public class MapPalette {
+
+    public record Colors(int[] floors, int[] overlays, int[] walls, int[] teams) {
+
+        public int floor(int id) {
+            return id >= 0 && id < floors.length ? floors[id] : 0;
+        }
+
+        public int overlay(int id) {
+            return id >= 0 && id < overlays.length ? overlays[id] : 0;
+        }
+
+        /** Color of a block as a wall, synthetic blocks take their team's color */
+        public int wall(Block block, Team team) {
+            if (block.synthetic()) {
+                return teams[team.id];
+            }
+
+            return block.id < walls.length ? walls[block.id] : 0;
+        }
+
+        public int team(Team team) {
+            return teams[team.id];
+        }
+    }
+
+    private volatile Colors colors = new Colors(new int[0], new int[0], new int[0], new int[Team.all.length]);
+
+    public Colors get() {
+        return colors;
+    }
+
+    /** Recomputes every color, called once block colors are set and again after mods add content */
+    public void rebuild() {
+        var blocks = Vars.content.blocks();
+        var color = new Color();
+
+        int[] floors = new int[blocks.size];
+        int[] overlays = new int[blocks.size];
+        int[] walls = new int[blocks.size];
+        int[] teams = new int[Team.all.length];
+
+        for (var block : blocks) {
+            floors[block.id] = color.set(MapIO.colorFor(Blocks.air, block, Blocks.air, Team.derelict)).argb8888();
+            overlays[block.id] = color.set(MapIO.colorFor(Blocks.air, Blocks.air, block, Team.derelict)).argb8888();
+            walls[block.id] = color.set(MapIO.colorFor(block, Blocks.air, Blocks.air, Team.derelict)).argb8888();
+        }
+
+        for (var team : Team.all) {
+            teams[team.id] = team.color.argb8888();
+        }
+
+        colors = new Colors(floors, overlays, walls, teams);
+    }
+}
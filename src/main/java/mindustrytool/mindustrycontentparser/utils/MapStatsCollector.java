@@ -0,0 +1,75 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import arc.struct.IntSeq;
+import mindustry.Vars;
+import mindustry.content.Blocks;
+import mindustry.game.Team;
+import mindustry.world.Block;
+import mindustry.world.blocks.environment.OreBlock;
+import mindustry.world.blocks.storage.CoreBlock;
+import mindustrytool.mindustrycontentparser.types.response.MapStatsDto;
+
+/**
+ * Map aggregates gathered while the tiles are read for the preview: ore tile
+ * counts by block id, building counts by team id, and spawn and core
+ * positions, all in primitive arrays until the map is done.
+ */
+public class MapStatsCollector {
+
+    private final int[] ores = new int[Vars.content.blocks().size];
+    private final int[] buildings = new int[Team.all.length];
+
+    // x, y pairs
+    private final IntSeq spawns = new IntSeq();
+
+    // x, y, block id, team id
+    private final IntSeq cores = new IntSeq();
+
+    public void overlay(int x, int y, Block overlay) {
+        if (overlay == Blocks.spawn) {
+            spawns.add(x, y);
+        } else if (overlay instanceof OreBlock && overlay.id < ores.length) {
+            ores[overlay.id]++;
+        }
+    }
+
+    public void building(int x, int y, Block block, Team team) {
+        buildings[team.id]++;
+
+        if (block instanceof CoreBlock) {
+            cores.add(x, y, block.id, team.id);
+        }
+    }
+
+    public MapStatsDto toDto() {
+        var oreCounts = new LinkedHashMap<String, Integer>();
+        var buildingCounts = new LinkedHashMap<String, Integer>();
+        var spawnPositions = new ArrayList<MapStatsDto.Position>(spawns.size / 2);
+        var corePositions = new ArrayList<MapStatsDto.Core>(cores.size / 4);
+
+        for (int id = 0; id < ores.length; id++) {
+            if (ores[id] > 0) {
+                oreCounts.put(Vars.content.block(id).name, ores[id]);
+            }
+        }
+
+        for (int id = 0; id < buildings.length; id++) {
+            if (buildings[id] > 0) {
+                buildingCounts.put(Team.all[id].name, buildings[id]);
+            }
+        }
+
+        for (int i = 0; i < spawns.size; i += 2) {
+            spawnPositions.add(new MapStatsDto.Position(spawns.get(i), spawns.get(i + 1)));
+        }
+
+        for (int i = 0; i < cores.size; i += 4) {
+            corePositions.add(new MapStatsDto.Core(Vars.content.block(cores.get(i + 2)).name, Team.all[cores.get(i + 3)].name, cores.get(i), cores.get(i + 1)));
+        }
+
+        return new MapStatsDto(oreCounts, buildingCounts, spawnPositions, corePositions);
+    }
+}
@@ -13,6 +13,7 @@ import mindustry.core.*;
 import mindustry.mod.Mods;
 import mindustry.world.*;
 import mindustrytool.mindustrycontentparser.EnvConfig;
+import mindustrytool.mindustrycontentparser.service.AssetsService;
 
 import org.springframework.stereotype.Component;
 
@@ -24,11 +25,13 @@ public class MindustryContent {
 
     private final EnvConfig config;
     private final DrawBatch drawBatch;
+    private final AssetsService assetsService;
+    private final MapPalette mapPalette;
 
     @PostConstruct
     public void init() {
 
-        Vars.content = new ContentLoader();
+        Vars.content = new ThreadLocalContentLoader();
         Vars.content.createBaseContent();
         Vars.mods = new Mods();
 
@@ -42,6 +45,7 @@ public class MindustryContent {
 
         Utils.runIgnoreError(Vars.content::load);
         loadBlockColors();
+        mapPalette.rebuild();
 
         Vars.world = new World() {
             public Tile tile(int x, int y) {
@@ -49,6 +53,9 @@ public class MindustryContent {
             }
         };
 
+        // No game runs here, tiles read from maps must never add buildings or fire events
+        Vars.world.setGenerating(true);
+
         Lines.useLegacyLine = true;
         Draw.scl = 1f / 4f;
 
@@ -56,6 +63,7 @@ public class MindustryContent {
         Vars.modDirectory.mkdirs();
 
         Vars.mods.load();
+        mapPalette.rebuild();
     }
 
     private void loadBlockColors() {
@@ -72,6 +80,15 @@ public class MindustryContent {
 
     private void loadTextures() {
         Core.atlas = new TextureAtlas();
+
+        var bundle = assetsService.getBundle();
+
+        if (bundle != null) {
+            loadTextures(bundle);
+            Core.atlas.setErrorRegion("error");
+            return;
+        }
+
         var data = new TextureAtlasData(new Fi(config.files().assetsFolder() + "assets/sprites/sprites.aatls"), new Fi(config.files().assetsFolder() + "assets/sprites"), false);
 
         data.getPages().each(page -> Utils.runIgnoreError(() -> {
@@ -86,4 +103,27 @@ public class MindustryContent {
 
         Core.atlas.setErrorRegion("error");
     }
+
+    // Same regions as the atlas data, read from the bundle index instead of parsing sprites.aatls
+    private void loadTextures(SpriteBundle bundle) {
+        var textures = new Texture[bundle.getPageCount()];
+
+        for (int i = 0; i < textures.length; i++) {
+            int page = i;
+            Utils.runIgnoreError(() -> {
+                textures[page] = Texture.createEmpty(null);
+            });
+        }
+
+        for (var region : bundle.getRegions()) {
+            var pageTexture = textures[region.page()];
+
+            Core.atlas.addRegion(region.name(), new AtlasRegion(pageTexture, region.left(), region.top(), region.width(), region.height()) {
+                {
+                    name = region.name();
+                    texture = pageTexture;
+                }
+            });
+        }
+    }
 }
@@ -0,0 +1,164 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Direct access to the int[] pixels behind TYPE_INT_ARGB images, including
+ * subimages that share their parent's raster.
+ */
+public class Rasters {
+
+    public static boolean isIntArgb(BufferedImage image) {
+        int type = image.getType();
+
+        return type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE;
+    }
+
+    public static BufferedImage toIntArgb(BufferedImage image) {
+        if (isIntArgb(image)) {
+            return image;
+        }
+
+        BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = argb.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+
+        return argb;
+    }
+
+    public static int[] data(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /** Index of pixel (0, 0) in {@link #data(BufferedImage)} */
+    public static int offset(BufferedImage image) {
+        var raster = image.getRaster();
+
+        return raster.getDataBuffer().getOffset() //
+                - raster.getSampleModelTranslateY() * stride(image) //
+                - raster.getSampleModelTranslateX();
+    }
+
+    public static int stride(BufferedImage image) {
+        return ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+    }
+
+    /** Converts a premultiplied pixel back to straight alpha */
+    public static int straight(int argb) {
+        int a = argb >>> 24;
+
+        if (a == 255 || a == 0) {
+            return a == 0 ? 0 : argb;
+        }
+
+        int r = Math.min(255, ((argb >> 16) & 0xff) * 255 / a);
+        int g = Math.min(255, ((argb >> 8) & 0xff) * 255 / a);
+        int b = Math.min(255, (argb & 0xff) * 255 / a);
+
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /** Packs a tint into 8 bits per channel, the key used to cache recolored sprites */
+    public static int pack(float r, float g, float b, float a) {
+        return (channel(r) << 24) | (channel(g) << 16) | (channel(b) << 8) | channel(a);
+    }
+
+    private static int channel(float value) {
+        return (int) (Math.max(0f, Math.min(1f, value)) * 255);
+    }
+
+    /**
+     * Multiplies every pixel with a packed rgba8888 tint, working straight on
+     * the rasters through one lookup table per channel.
+     */
+    public static BufferedImage tint(BufferedImage image, int rgba) {
+        image = toIntArgb(image);
+
+        int width = image.getWidth(), height = image.getHeight();
+        int[] ra = lookup(rgba >>> 24), ga = lookup((rgba >> 16) & 0xff), ba = lookup((rgba >> 8) & 0xff), aa = lookup(rgba & 0xff);
+
+        int[] src = data(image);
+        int offset = offset(image), stride = stride(image);
+        boolean premultiplied = image.isAlphaPremultiplied();
+
+        BufferedImage copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] dst = data(copy);
+
+        for (int y = 0, i = 0; y < height; y++) {
+            int row = offset + y * stride;
+
+            for (int x = 0; x < width; x++, i++) {
+                int p = src[row + x];
+
+                if (premultiplied) {
+                    p = straight(p);
+                }
+
+                dst[i] = (aa[p >>> 24] << 24) | (ra[(p >> 16) & 0xff] << 16) | (ga[(p >> 8) & 0xff] << 8) | ba[p & 0xff];
+            }
+        }
+
+        return copy;
+    }
+
+    /** Halves both sides of an image, the last row and column are kept for odd sizes */
+    public static BufferedImage halve(BufferedImage image) {
+        image = toIntArgb(image);
+
+        int width = image.getWidth(), height = image.getHeight();
+        BufferedImage half = new BufferedImage((width + 1) / 2, (height + 1) / 2, BufferedImage.TYPE_INT_ARGB);
+
+        downsample(data(image), offset(image), stride(image), image.isAlphaPremultiplied(), width, height, data(half), 0, half.getWidth(), 2);
+
+        return half;
+    }
+
+    /**
+     * Box filters a width x height area into one {@code factor} times smaller,
+     * averaging colors by alpha so transparent pixels do not darken the edges.
+     * Blocks cut off by the area's edge average over the pixels they have.
+     */
+    public static void downsample(int[] src, int srcOffset, int srcStride, boolean premultiplied, int width, int height, int[] dst, int dstOffset, int dstStride, int factor) {
+        for (int y = 0; y < height; y += factor) {
+            int dstRow = dstOffset + (y / factor) * dstStride;
+
+            for (int x = 0; x < width; x += factor) {
+                long a = 0, r = 0, g = 0, b = 0;
+                int count = 0;
+
+                for (int sy = y; sy < Math.min(y + factor, height); sy++) {
+                    for (int sx = x; sx < Math.min(x + factor, width); sx++, count++) {
+                        int pixel = src[srcOffset + sy * srcStride + sx];
+
+                        if (premultiplied) {
+                            pixel = straight(pixel);
+                        }
+
+                        int alpha = pixel >>> 24;
+
+                        a += alpha;
+                        r += ((pixel >> 16) & 0xff) * alpha;
+                        g += ((pixel >> 8) & 0xff) * alpha;
+                        b += (pixel & 0xff) * alpha;
+                    }
+                }
+
+                dst[dstRow + x / factor] = a == 0 ? 0 : (int) (a / count) << 24 | (int) (r / a) << 16 | (int) (g / a) << 8 | (int) (b / a);
+            }
+        }
+    }
+
+    private static int[] lookup(int factor) {
+        int[] table = new int[256];
+
+        for (int i = 0; i < 256; i++) {
+            table[i] = i * factor / 255;
+        }
+
+        return table;
+    }
+}
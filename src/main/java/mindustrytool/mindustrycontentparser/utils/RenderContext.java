@@ -0,0 +1,59 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+import arc.graphics.Color;
+import arc.struct.Seq;
+import mindustrytool.mindustrycontentparser.service.AssetsService;
+
+/**
+ * Per-render drawing state: the target image and everything {@link DrawBatch}
+ * used to keep in shared fields. One context is bound to the rendering thread
+ * between {@link DrawBatch#begin(BufferedImage)} and {@link #close()}.
+ */
+public class RenderContext implements AutoCloseable {
+
+    public final BufferedImage image;
+    public final Graphics2D graphics;
+    public final AffineTransform transform = new AffineTransform();
+
+    // Pixels per world unit and the mip level sprites are read from
+    public float scale = 4;
+    public int level;
+
+    // Where the image sits on a larger canvas when rendering in tiles
+    public int canvasHeight;
+    public int offsetX, offsetY;
+
+    public final Color color = new Color(1, 1, 1, 1);
+    public final Color mixColor = new Color(0, 0, 0, 0);
+    public float colorPacked = Color.whiteFloatBits;
+    public float mixColorPacked = Color.clearFloatBits;
+
+    // Sprites held back while Mindustry's draw code runs, see DrawBatch#drawQueued
+    final Seq<DrawBatch.QueuedSprite> queue = new Seq<>();
+    boolean queueing;
+
+    final RenderContext previous;
+
+    RenderContext(BufferedImage image, RenderContext previous) {
+        this.image = image;
+        this.graphics = image.createGraphics();
+        this.canvasHeight = image.getHeight();
+        this.previous = previous;
+    }
+
+    /** Draws at {@code pixels} per tile instead of the full 32 */
+    public void setTilePixels(int pixels) {
+        scale = pixels / 8f;
+        level = AssetsService.mipLevel(pixels);
+    }
+
+    @Override
+    public void close() {
+        graphics.dispose();
+        DrawBatch.end(this);
+    }
+}
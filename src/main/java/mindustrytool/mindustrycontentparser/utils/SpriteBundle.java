@@ -0,0 +1,279 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import arc.files.Fi;
+import arc.graphics.g2d.TextureAtlas.TextureAtlasData;
+import arc.struct.ObjectIntMap;
+import arc.struct.ObjectMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pre-baked sprite atlas. The file holds the region index followed by the
+ * premultiplied ARGB pixels of every region, and is memory-mapped on startup
+ * so no PNG page has to be decoded.
+ *
+ * <pre>
+ * int magic, int version, byte[32] sha-256 of the atlas and its pages
+ * int pages, int regions
+ * regions * (short length, utf-8 name, int page, int left, int top, int width, int height, int offset)
+ * padding to 4 bytes, then the pixels, offset is counted in ints
+ * </pre>
+ */
+@Slf4j
+public class SpriteBundle {
+
+    private static final int MAGIC = 0x4D534250;
+    private static final int VERSION = 1;
+
+    // Smallest index entry, a region with an empty name
+    private static final int MIN_REGION_BYTES = Short.BYTES + 6 * Integer.BYTES;
+
+    public record Region(String name, int page, int left, int top, int width, int height, int offset) {
+    }
+
+    private final byte[] hash;
+    private final int pageCount;
+    private final List<Region> regions;
+    private final ObjectIntMap<String> ids = new ObjectIntMap<>();
+    private final IntBuffer pixels;
+
+    private SpriteBundle(byte[] hash, int pageCount, List<Region> regions, IntBuffer pixels) {
+        this.hash = hash;
+        this.pageCount = pageCount;
+        this.regions = regions;
+        this.pixels = pixels;
+
+        for (int i = 0; i < regions.size(); i++) {
+            ids.put(regions.get(i).name(), i);
+        }
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public List<Region> getRegions() {
+        return regions;
+    }
+
+    public int getId(String name) {
+        return ids.get(name, -1);
+    }
+
+    public boolean matches(byte[] atlasHash) {
+        return Arrays.equals(hash, atlasHash);
+    }
+
+    /** Copies one region out of the mapped file, no decoding involved */
+    public BufferedImage read(int id) {
+        var region = regions.get(id);
+        var image = new BufferedImage(region.width(), region.height(), BufferedImage.TYPE_INT_ARGB_PRE);
+
+        pixels.get(region.offset(), Rasters.data(image));
+
+        return image;
+    }
+
+    public static byte[] hash(Fi atlasFile, Fi spriteFolder) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(atlasFile.readBytes());
+
+            var pages = spriteFolder.list(".png");
+            Arrays.sort(pages, Comparator.comparing(Fi::name));
+
+            for (var page : pages) {
+                digest.update(page.name().getBytes(StandardCharsets.UTF_8));
+                digest.update(page.readBytes());
+            }
+
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Maps a bundle. A truncated or corrupt file fails with an IOException, like
+     * any other unreadable bundle, so it is rebuilt instead of failing startup.
+     */
+    public static SpriteBundle open(Fi file) throws IOException {
+        try (var channel = FileChannel.open(file.file().toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            try {
+                return read(buffer, file);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Truncated sprite bundle: " + file, e);
+            }
+        }
+    }
+
+    private static SpriteBundle read(ByteBuffer buffer, Fi file) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a sprite bundle: " + file);
+        }
+
+        byte[] hash = new byte[32];
+        buffer.get(hash);
+
+        int pageCount = buffer.getInt();
+        int regionCount = buffer.getInt();
+
+        if (regionCount < 0 || (long) regionCount * MIN_REGION_BYTES > buffer.remaining()) {
+            throw new IOException("Corrupt sprite bundle, " + regionCount + " regions do not fit: " + file);
+        }
+
+        var regions = new ArrayList<Region>(regionCount);
+
+        for (int i = 0; i < regionCount; i++) {
+            byte[] name = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(name);
+
+            regions.add(new Region(new String(name, StandardCharsets.UTF_8), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt()));
+        }
+
+        int pixelsStart = (buffer.position() + 3) & ~3;
+
+        if (pixelsStart > buffer.limit()) {
+            throw new BufferUnderflowException();
+        }
+
+        buffer.position(pixelsStart);
+
+        var pixels = buffer.slice().asIntBuffer();
+
+        for (var region : regions) {
+            if (region.page() < 0 || region.page() >= pageCount || region.width() < 0 || region.height() < 0 || region.offset() < 0
+                    || region.offset() + (long) region.width() * region.height() > pixels.limit()) {
+                throw new IOException("Corrupt sprite bundle, region " + region.name() + " is out of bounds: " + file);
+            }
+        }
+
+        return new SpriteBundle(hash, pageCount, regions, pixels);
+    }
+
+    public static void build(Fi atlasFile, Fi spriteFolder, Fi file) throws IOException {
+        var atlas = new TextureAtlasData(atlasFile, spriteFolder, false);
+        var pages = atlas.getPages();
+        var images = new ObjectMap<String, BufferedImage>();
+
+        // A bundle missing a page would be kept until the atlas changes, so an
+        // unreadable page fails the whole build
+        for (var page : pages) {
+            BufferedImage image;
+
+            try {
+                image = ImageIO.read(page.textureFile.file());
+            } catch (IOException e) {
+                throw new IOException("Unable to read sprite page " + page.textureFile.path(), e);
+            }
+
+            if (image == null) {
+                throw new IOException("Unsupported sprite page " + page.textureFile.path());
+            }
+
+            images.put(page.textureFile.name(), Rasters.toIntArgb(image));
+        }
+
+        var regions = new ArrayList<Region>();
+        int offset = 0;
+
+        for (var region : atlas.getRegions()) {
+            regions.add(new Region(region.name, pages.indexOf(region.page), region.left, region.top, region.width, region.height, offset));
+            offset += region.width * region.height;
+        }
+
+        // Written next to the target and moved over it, a running instance never maps a partial file
+        var temp = file.sibling(file.name() + ".tmp");
+
+        try (var stream = new DataOutputStream(new BufferedOutputStream(temp.write(false), 1 << 16))) {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.write(hash(atlasFile, spriteFolder));
+            stream.writeInt(pages.size);
+            stream.writeInt(regions.size());
+
+            for (var region : regions) {
+                byte[] name = region.name().getBytes(StandardCharsets.UTF_8);
+                stream.writeShort(name.length);
+                stream.write(name);
+                stream.writeInt(region.page());
+                stream.writeInt(region.left());
+                stream.writeInt(region.top());
+                stream.writeInt(region.width());
+                stream.writeInt(region.height());
+                stream.writeInt(region.offset());
+            }
+
+            while (stream.size() % Integer.BYTES != 0) {
+                stream.writeByte(0);
+            }
+
+            for (var region : regions) {
+                var page = images.get(pages.get(region.page()).textureFile.name());
+                int[] src = Rasters.data(page);
+                int start = Rasters.offset(page), stride = Rasters.stride(page);
+
+                var row = ByteBuffer.allocate(region.width() * Integer.BYTES);
+
+                for (int y = 0; y < region.height(); y++) {
+                    row.clear();
+
+                    for (int x = 0; x < region.width(); x++) {
+                        row.putInt(premultiply(src[start + (region.top() + y) * stride + region.left() + x]));
+                    }
+
+                    stream.write(row.array());
+                }
+            }
+        }
+
+        Files.move(temp.file().toPath(), file.file().toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int premultiply(int argb) {
+        int a = argb >>> 24;
+
+        if (a == 255 || a == 0) {
+            return a == 0 ? 0 : argb;
+        }
+
+        int r = ((argb >> 16) & 0xff) * a / 255;
+        int g = ((argb >> 8) & 0xff) * a / 255;
+        int b = (argb & 0xff) * a / 255;
+
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /** Bakes the bundle at build time: {@code SpriteBundle <assets folder>} */
+    public static void main(String[] args) throws IOException {
+        var assetsFolder = args.length > 0 ? args[0] : "mindustry/core/";
+        var file = new Fi(assetsFolder + "sprites.bundle");
+
+        build(new Fi(assetsFolder + "assets/sprites/sprites.aatls"), new Fi(assetsFolder + "assets/sprites"), file);
+
+        log.info("Baked {} regions into {}", open(file).getRegions().size(), file);
+    }
+}
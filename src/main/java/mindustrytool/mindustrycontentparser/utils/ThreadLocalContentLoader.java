@@ -0,0 +1,47 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import mindustry.core.ContentLoader;
+import mindustry.ctype.Content;
+import mindustry.ctype.ContentType;
+import mindustry.ctype.MappableContent;
+
+/**
+ * Content loader whose temporary mapper, set while a save's content header is
+ * read, belongs to the reading thread. Maps can then be read concurrently
+ * without remapping each other's ids.
+ */
+public class ThreadLocalContentLoader extends ContentLoader {
+
+    private final ThreadLocal<MappableContent[][]> temporaryMapper = new ThreadLocal<>();
+
+    @Override
+    public void setTemporaryMapper(MappableContent[][] temporaryMapper) {
+        if (temporaryMapper == null) {
+            this.temporaryMapper.remove();
+        } else {
+            this.temporaryMapper.set(temporaryMapper);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Content> T getByID(ContentType type, int id) {
+        var mapper = temporaryMapper.get();
+        var mapped = mapper == null ? null : mapper[type.ordinal()];
+
+        if (mapped == null || mapped.length == 0) {
+            return super.getByID(type, id);
+        }
+
+        // Same fallbacks as the shared mapper: invalid ids are null, unknown ones the first content
+        if (id < 0) {
+            return null;
+        }
+
+        if (id >= mapped.length || mapped[id] == null) {
+            return (T) getBy(type).get(0);
+        }
+
+        return (T) mapped[id];
+    }
+}
@@ -1,26 +1,22 @@
 package mindustrytool.mindustrycontentparser.utils;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-import javax.imageio.ImageIO;
 
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
 import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.codec.multipart.FilePart;
 
 import arc.util.UnsafeRunnable;
 import arc.util.serialization.Base64Coder;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public class Utils {
 
-    public static final ExecutorService EXECUTOR_SERVICE = Executors.newFixedThreadPool(10);
-
     public static void runIgnoreError(UnsafeRunnable r) {
         try {
             r.run();
@@ -33,22 +29,38 @@ public class Utils {
     }
 
     public static byte[] decode(byte[] data) {
+        if (data == null) {
+            throw new ApiError(HttpStatus.BAD_REQUEST, "Missing data");
+        }
+
         return Base64Coder.decode(new String(data, StandardCharsets.UTF_8));
     }
 
-    public static String imageToBase64(BufferedImage image) {
-        return Base64Coder.encodeLines(Utils.toByteArray(image));
+    /**
+     * Blocking stream over a request body that reads buffers as they arrive and
+     * releases them once consumed, nothing is joined.
+     */
+    public static InputStream toInputStream(Flux<DataBuffer> body) {
+        return DataBufferUtils.subscriberInputStream(body, 4);
     }
 
-    public static synchronized byte[] toByteArray(BufferedImage image) {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(image, "webp", baos);
-            return baos.toByteArray();
+    public static String toBase64(byte[] data) {
+        return Base64Coder.encodeLines(data);
+    }
 
-        } catch (IOException e) {
-            throw new ApiError(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to write image to bytes");
-        }
+    public static byte[] toByteArray(BufferedImage image) {
+        return ImageEncoder.write(image, ImageFormat.WEBP, null);
+    }
+
+    /** Joins a request body, failing with 413 once it grows past {@code maxBytes} */
+    public static Mono<byte[]> readAllBytes(Flux<DataBuffer> body, int maxBytes) {
+        return DataBufferUtils.join(body, maxBytes).map(buffer -> {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            DataBufferUtils.release(buffer);
+
+            return bytes;
+        }).onErrorMap(DataBufferLimitException.class, e -> new ApiError(HttpStatus.PAYLOAD_TOO_LARGE, "Upload is larger than " + maxBytes + " bytes", e));
     }
 
     public static Mono<byte[]> readAllBytes(FilePart file) {
@@ -0,0 +1,31 @@
+package mindustrytool.mindustrycontentparser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+
+import mindustrytool.mindustrycontentparser.service.AssetsService;
+
+/**
+ * Base of tests that need Mindustry content and sprites, loaded once from the
+ * assets in {@code mindustry/core} of the working copy.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = { //
+        "app.init=false", //
+        "app.assets.mode=memory", //
+        "app.files.assets-folder=mindustry/core/", //
+        "app.files.mods-folder=mindustry/mods/", //
+        "app.previews.cache-folder=" })
+public abstract class ContentTest {
+
+    @Autowired
+    private AssetsService assetsService;
+
+    @BeforeEach
+    public void waitForAssets() {
+        while (!assetsService.isReady()) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package mindustrytool.mindustrycontentparser;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import arc.struct.ObjectMap;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mindustrytool.mindustrycontentparser.service.PreviewCache;
+import mindustrytool.mindustrycontentparser.service.RenderedPreview;
+import mindustrytool.mindustrycontentparser.types.response.MapPreviewResult;
+import mindustrytool.mindustrycontentparser.types.response.MapStatsDto;
+import mindustrytool.mindustrycontentparser.types.response.SchematicItemRequirementDto;
+import mindustrytool.mindustrycontentparser.types.response.SchematicPreviewResult;
+import mindustrytool.mindustrycontentparser.utils.ImageFormat;
+
+/**
+ * Previews written to disk by the cache codecs and read back, map tags
+ * included even though Arc's ObjectMap does not read back from json.
+ */
+public class PreviewCacheConfigTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    private Path folder;
+
+    @Test
+    public void mapPreviewRoundTrip() throws IOException {
+        var tags = new ObjectMap<String, String>();
+        tags.put("name", "Test");
+        tags.put("rules", "{\"waves\":true}");
+
+        var stats = new MapStatsDto(Map.of("ore-copper", 12), Map.of("sharded", 3), //
+                List.of(new MapStatsDto.Position(5, 0)), //
+                List.of(new MapStatsDto.Core("core-shard", "sharded", 1, 1)));
+
+        var result = new MapPreviewResult()//
+                .setName("Test")//
+                .setAuthor("Someone")//
+                .setDescription("A map")//
+                .setWidth(6)//
+                .setHeight(4)//
+                .setTags(tags)//
+                .setStats(stats);
+
+        var preview = new RenderedPreview<>(result, new byte[] { 1, 2, 3 }, ImageFormat.WEBP);
+        var codec = PreviewCacheConfig.mapCodec(objectMapper);
+        var read = codec.read(codec.write(preview));
+
+        assertEquals("Test", read.result().getName());
+        assertEquals("Someone", read.result().getAuthor());
+        assertEquals("A map", read.result().getDescription());
+        assertEquals(6, read.result().getWidth());
+        assertEquals(4, read.result().getHeight());
+        assertEquals(stats, read.result().getStats());
+
+        assertEquals(2, read.result().getTags().size);
+        assertEquals("Test", read.result().getTags().get("name"));
+        assertEquals("{\"waves\":true}", read.result().getTags().get("rules"));
+
+        assertArrayEquals(preview.image(), read.image());
+        assertEquals(ImageFormat.WEBP, read.format());
+
+        // Through the disk tier of a cache that has not seen it yet
+        var key = PreviewCache.key(new byte[] { 4, 5, 6 }, "");
+        cache(codec).put(key, preview);
+
+        var cached = cache(codec).getIfPresent(key);
+
+        assertEquals(tags.get("rules"), cached.result().getTags().get("rules"));
+        assertEquals(stats, cached.result().getStats());
+        assertArrayEquals(preview.image(), cached.image());
+    }
+
+    @Test
+    public void schematicPreviewRoundTrip() throws IOException {
+        var result = new SchematicPreviewResult()//
+                .setName("Walls")//
+                .setDescription("")//
+                .setWidth(4)//
+                .setHeight(2)//
+                .setLabels(List.of("defense"))//
+                .setRequirements(List.of(new SchematicItemRequirementDto("copper", "d99d73ff", (short) 48)));
+
+        var preview = new RenderedPreview<>(result, new byte[] { 7, 8 }, ImageFormat.PNG);
+        var codec = PreviewCacheConfig.schematicCodec(objectMapper);
+        var read = codec.read(codec.write(preview));
+
+        assertEquals(result, read.result());
+        assertArrayEquals(preview.image(), read.image());
+        assertEquals(ImageFormat.PNG, read.format());
+    }
+
+    private <T> PreviewCache<T> cache(PreviewCache.Codec<T> codec) {
+        return new PreviewCache<>("test", 1 << 20, value -> 1, folder, codec, null, new SimpleMeterRegistry());
+    }
+}
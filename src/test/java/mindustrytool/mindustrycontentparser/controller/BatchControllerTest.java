@@ -0,0 +1,146 @@
+package mindustrytool.mindustrycontentparser.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import arc.struct.Seq;
+import arc.struct.StringMap;
+import mindustry.content.Blocks;
+import mindustry.game.Schematic;
+import mindustry.game.Schematic.Stile;
+import mindustry.game.Schematics;
+import mindustrytool.mindustrycontentparser.ContentTest;
+import mindustrytool.mindustrycontentparser.types.request.BatchPreviewItem;
+import mindustrytool.mindustrycontentparser.types.request.BatchPreviewItem.Type;
+
+/**
+ * Posts ndjson batches and checks the lines that come back: one json object
+ * per item, in completion order, with failures as error lines.
+ */
+public class BatchControllerTest extends ContentTest {
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    public void everyItemGetsOneResultLine() throws IOException {
+        var lines = post(item("a", walls(), null), item("b", walls(), 8f));
+
+        assertEquals(2, lines.size());
+
+        for (int i = 0; i < lines.size(); i++) {
+            var line = lines.get(i);
+
+            assertEquals(i, line.get("index").asInt());
+            assertEquals(i == 0 ? "a" : "b", line.get("id").asText());
+            assertEquals(200, line.get("status").asInt());
+            assertEquals(4, line.get("result").get("width").asInt());
+            assertFalse(line.get("result").get("image").asText().isEmpty());
+            assertFalse(line.has("message"));
+        }
+    }
+
+    @Test
+    public void failedItemBecomesAnErrorLine() throws IOException {
+        var broken = item("broken", new byte[] { 1, 2, 3 }, null);
+        var lines = post(broken, item("fine", walls(), null));
+
+        assertEquals(2, lines.size());
+
+        var error = lines.get(0);
+        assertEquals("broken", error.get("id").asText());
+        assertEquals(400, error.get("status").asInt());
+        assertFalse(error.has("result"));
+        assertFalse(error.get("message").asText().isEmpty());
+
+        assertEquals(200, lines.get(1).get("status").asInt());
+    }
+
+    @Test
+    public void fractionalSchematicScaleIsRejected() throws IOException {
+        var lines = post(item("half", walls(), 0.5f), item("whole", walls(), 2f));
+
+        var rejected = lines.get(0);
+        assertEquals(400, rejected.get("status").asInt());
+        assertTrue(rejected.get("message").asText().contains("scale"));
+
+        assertEquals(200, lines.get(1).get("status").asInt());
+    }
+
+    // Result lines sorted back into item order
+    private List<JsonNode> post(BatchPreviewItem... items) throws IOException {
+        var body = new StringBuilder();
+
+        for (var item : items) {
+            body.append(objectMapper.writeValueAsString(item)).append('\n');
+        }
+
+        var response = client.post()//
+                .uri("/api/v1/batch")//
+                .contentType(MediaType.APPLICATION_NDJSON)//
+                .bodyValue(body.toString())//
+                .exchange()//
+                .expectStatus().isOk()//
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)//
+                .expectBody(String.class)//
+                .returnResult()//
+                .getResponseBody();
+
+        var lines = new ArrayList<JsonNode>();
+
+        for (var line : response.split("\n")) {
+            if (!line.isBlank()) {
+                lines.add(objectMapper.readTree(line));
+            }
+        }
+
+        lines.sort(Comparator.comparingInt(line -> line.get("index").asInt()));
+
+        return lines;
+    }
+
+    private static BatchPreviewItem item(String id, byte[] data, Float scale) {
+        var item = new BatchPreviewItem();
+
+        item.setId(id);
+        item.setType(Type.SCHEMATIC);
+        item.setData(data);
+        item.setScale(scale);
+
+        return item;
+    }
+
+    // 4x2 copper walls
+    private static byte[] walls() throws IOException {
+        var tiles = new Seq<Stile>();
+
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 4; x++) {
+                tiles.add(new Stile(Blocks.copperWall, x, y, null, (byte) 0));
+            }
+        }
+
+        var output = new ByteArrayOutputStream();
+        Schematics.write(new Schematic(tiles, new StringMap(), 4, 2), output);
+
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,212 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import mindustry.content.Blocks;
+import mindustry.ctype.ContentType;
+import mindustry.game.Team;
+import mindustrytool.mindustrycontentparser.ContentTest;
+import mindustrytool.mindustrycontentparser.types.request.MapPreviewRequest;
+import mindustrytool.mindustrycontentparser.types.response.MapStatsDto;
+import mindustrytool.mindustrycontentparser.utils.MapPalette;
+
+/**
+ * Reads a 6x6 save written here, stone on the left half and sand on the right
+ * with a copper ore tile, a spawn and a sharded core, at full resolution and
+ * with 2x2 tiles averaged into a pixel. Pixels come from the palette, so only
+ * the layout is checked, not Mindustry's colors.
+ */
+public class MapServiceTest extends ContentTest {
+
+    private static final int SIZE = 6;
+
+    // Save-local block ids are indexes into this list, 0 has to be air
+    private static final String[] CONTENT = { "air", "stone", "sand-floor", "ore-copper", "spawn", "core-shard" };
+    private static final int STONE = 1, SAND = 2, ORE = 3, SPAWN = 4, CORE = 5;
+
+    @Autowired
+    private MapService mapService;
+
+    @Autowired
+    private MapPalette mapPalette;
+
+    @Test
+    public void fullResolution() throws IOException {
+        var map = read(4f);
+        var colors = mapPalette.get();
+        var image = map.image;
+
+        // One tile margin, 4 pixels per tile
+        assertEquals(28, image.getWidth());
+        assertEquals(28, image.getHeight());
+
+        assertEquals(colors.floor(Blocks.stone.id), pixel(map, 2, 4));
+        assertEquals(colors.floor(Blocks.sand.id), pixel(map, 5, 5));
+        assertEquals(colors.overlay(Blocks.oreCopper.id), pixel(map, 0, 5));
+        assertEquals(colors.overlay(Blocks.spawn.id), pixel(map, 5, 0));
+
+        // The core covers tiles 0 to 2 around its center
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertEquals(colors.team(Team.sharded), pixel(map, x, y), "Core tile " + x + ", " + y);
+            }
+        }
+
+        assertEquals(colors.floor(Blocks.sand.id), pixel(map, 3, 0));
+        assertStats(map.stats);
+    }
+
+    @Test
+    public void averaged() throws IOException {
+        var map = read(0.5f);
+        var colors = mapPalette.get();
+        var image = map.image;
+
+        int stone = colors.floor(Blocks.stone.id), sand = colors.floor(Blocks.sand.id);
+
+        assertEquals(3, image.getWidth());
+        assertEquals(3, image.getHeight());
+
+        // Top row averages tiles 4 and 5 upwards
+        assertEquals(average(stone, stone, stone, colors.overlay(Blocks.oreCopper.id)), image.getRGB(0, 0));
+        assertEquals(average(stone, sand, stone, sand), image.getRGB(1, 0));
+        assertEquals(sand, image.getRGB(2, 0));
+
+        // The core touches the two left pixels of the two bottom rows
+        assertEquals(colors.team(Team.sharded), image.getRGB(0, 1));
+        assertEquals(colors.team(Team.sharded), image.getRGB(1, 1));
+        assertEquals(colors.team(Team.sharded), image.getRGB(0, 2));
+        assertEquals(colors.team(Team.sharded), image.getRGB(1, 2));
+
+        assertEquals(average(sand, sand, sand, colors.overlay(Blocks.spawn.id)), image.getRGB(2, 2));
+        assertStats(map.stats);
+    }
+
+    private MapService.Map read(float scale) throws IOException {
+        var request = new MapPreviewRequest();
+        request.setScale(scale);
+
+        return mapService.readMap(new ByteArrayInputStream(writeMap()), request, new PreviewTimings("test"));
+    }
+
+    private static void assertStats(MapStatsDto stats) {
+        assertEquals(Map.of("ore-copper", 1), stats.ores());
+        assertEquals(Map.of("sharded", 1), stats.buildings());
+        assertEquals(List.of(new MapStatsDto.Position(5, 0)), stats.spawns());
+        assertEquals(List.of(new MapStatsDto.Core("core-shard", "sharded", 1, 1)), stats.cores());
+    }
+
+    // Middle of a tile at 4 pixels per tile, clear of the outlines on its edges
+    private static int pixel(MapService.Map map, int x, int y) {
+        return map.image.getRGB(x * 4 + 2, map.image.getHeight() - 5 - y * 4);
+    }
+
+    // Alpha weighted like MapCanvas
+    private static int average(int... argb) {
+        long a = 0, r = 0, g = 0, b = 0;
+
+        for (int c : argb) {
+            long alpha = c >>> 24;
+            a += alpha;
+            r += ((c >> 16) & 0xff) * alpha;
+            g += ((c >> 8) & 0xff) * alpha;
+            b += (c & 0xff) * alpha;
+        }
+
+        return a == 0 ? 0 : (int) (a / argb.length) << 24 | (int) (r / a) << 16 | (int) (g / a) << 8 | (int) (b / a);
+    }
+
+    // Save version 7 with the meta, content and map regions
+    private static byte[] writeMap() throws IOException {
+        var out = new ByteArrayOutputStream();
+
+        try (var data = new DataOutputStream(new DeflaterOutputStream(out))) {
+            data.write("MSAV".getBytes(StandardCharsets.US_ASCII));
+            data.writeInt(7);
+
+            region(data, meta -> {
+                meta.writeShort(3);
+                meta.writeUTF("name");
+                meta.writeUTF("Test");
+                meta.writeUTF("width");
+                meta.writeUTF(String.valueOf(SIZE));
+                meta.writeUTF("height");
+                meta.writeUTF(String.valueOf(SIZE));
+            });
+
+            region(data, content -> {
+                content.writeByte(1);
+                content.writeByte(ContentType.block.ordinal());
+                content.writeShort(CONTENT.length);
+
+                for (var name : CONTENT) {
+                    content.writeUTF(name);
+                }
+            });
+
+            region(data, map -> {
+                map.writeShort(SIZE);
+                map.writeShort(SIZE);
+
+                for (int y = 0; y < SIZE; y++) {
+                    for (int x = 0; x < SIZE; x++) {
+                        map.writeShort(x < 3 ? STONE : SAND);
+                        map.writeShort(x == 0 && y == 5 ? ORE : x == 5 && y == 0 ? SPAWN : 0);
+                        map.writeByte(0);
+                    }
+                }
+
+                for (int y = 0; y < SIZE; y++) {
+                    for (int x = 0; x < SIZE; x++) {
+                        if (x > 2 || y > 2) {
+                            map.writeShort(0);
+                            map.writeByte(0);
+                            map.writeByte(0);
+                            continue;
+                        }
+
+                        // Every tile of the core has an entity, only its center carries it
+                        map.writeShort(CORE);
+                        map.writeByte(1);
+                        map.writeBoolean(x == 1 && y == 1);
+
+                        if (x == 1 && y == 1) {
+                            // Revision, health, rotation and team
+                            map.writeShort(7);
+                            map.writeByte(0);
+                            map.writeFloat(1100);
+                            map.writeByte(0);
+                            map.writeByte(Team.sharded.id);
+                        }
+                    }
+                }
+            });
+        }
+
+        return out.toByteArray();
+    }
+
+    private interface RegionWriter {
+        void write(DataOutputStream data) throws IOException;
+    }
+
+    private static void region(DataOutputStream data, RegionWriter writer) throws IOException {
+        var region = new ByteArrayOutputStream();
+        writer.write(new DataOutputStream(region));
+
+        data.writeInt(region.size());
+        region.writeTo(data);
+    }
+}
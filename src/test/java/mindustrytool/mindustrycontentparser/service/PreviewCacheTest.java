@@ -0,0 +1,273 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Keys, the disk tier and renders shared between requests for the same key,
+ * without Spring. Values are strings written with a prefix, so a file that
+ * lost it can not be read back.
+ */
+public class PreviewCacheTest {
+
+    private static final String PREFIX = "preview:";
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 200;
+
+    private static final PreviewCache.Codec<String> CODEC = new PreviewCache.Codec<>() {
+        @Override
+        public byte[] write(String value) {
+            return (PREFIX + value).getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String read(byte[] data) throws IOException {
+            var text = new String(data, StandardCharsets.UTF_8);
+
+            if (!text.startsWith(PREFIX)) {
+                throw new IOException("Not a cached preview");
+            }
+
+            return text.substring(PREFIX.length());
+        }
+    };
+
+    @TempDir
+    private Path folder;
+
+    @Test
+    public void keyIsStable() {
+        var payload = payload("schematic");
+        var key = PreviewCache.key(payload, "scale=2");
+
+        assertEquals(key, PreviewCache.key(payload("schematic"), "scale=2"));
+        assertEquals(64, key.length());
+        assertTrue(key.matches("[0-9a-f]+"));
+    }
+
+    @Test
+    public void payloadAndOptionsChangeTheKey() {
+        var key = PreviewCache.key(payload("schematic"), "scale=2");
+
+        assertNotEquals(key, PreviewCache.key(payload("schematic"), "scale=3"));
+        assertNotEquals(key, PreviewCache.key(payload("schematics"), "scale=2"));
+
+        // The separator keeps the payload and the options apart
+        assertNotEquals(PreviewCache.key(payload("ab"), "c"), PreviewCache.key(payload("a"), "bc"));
+    }
+
+    @Test
+    public void streamedDigestGivesTheSameKey() {
+        var payload = payload("a schematic uploaded in chunks");
+        var digest = PreviewCache.digest();
+
+        for (int i = 0; i < payload.length; i += 7) {
+            digest.update(payload, i, Math.min(7, payload.length - i));
+        }
+
+        assertEquals(PreviewCache.key(payload, "size=512"), PreviewCache.key(digest, "size=512"));
+    }
+
+    @Test
+    public void diskTierSurvivesARestart() {
+        var key = PreviewCache.key(payload("map"), "");
+
+        cache(folder).put(key, "rendered");
+
+        // The file is under the cache's name and the first two characters of the key
+        assertTrue(Files.isRegularFile(folder.resolve("test").resolve(key.substring(0, 2)).resolve(key)));
+
+        assertEquals("rendered", cache(folder).getIfPresent(key));
+        assertNull(cache(folder).getIfPresent(PreviewCache.key(payload("other map"), "")));
+    }
+
+    @Test
+    public void memoryOnlyWithoutAFolder() {
+        var key = PreviewCache.key(payload("map"), "");
+        var cache = cache(null);
+
+        cache.put(key, "rendered");
+
+        assertEquals("rendered", cache.getIfPresent(key));
+        assertNull(cache(null).getIfPresent(key));
+    }
+
+    @Test
+    public void unreadableFileIsAMiss() throws IOException {
+        var key = PreviewCache.key(payload("map"), "");
+
+        cache(folder).put(key, "rendered");
+        Files.writeString(folder.resolve("test").resolve(key.substring(0, 2)).resolve(key), "truncated");
+
+        assertNull(cache(folder).getIfPresent(key));
+    }
+
+    @Test
+    public void joinedRequestGetsTheRunningRender() throws Exception {
+        var cache = cache(null, 1 << 20);
+        var key = PreviewCache.key(payload("map"), "");
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var renders = new AtomicInteger();
+        var executor = Executors.newSingleThreadExecutor();
+
+        try {
+            var leader = executor.submit(() -> cache.get(key, token(), new PreviewTimings("test"), () -> {
+                renders.incrementAndGet();
+                started.countDown();
+                await(release);
+
+                return "rendered";
+            }).block(TIMEOUT));
+
+            started.await();
+
+            var timings = new PreviewTimings("test");
+            var joined = cache.get(key, token(), timings, () -> {
+                renders.incrementAndGet();
+                return "rendered again";
+            });
+
+            // Only the request that ran the render records it
+            assertTrue(timings.joined);
+
+            release.countDown();
+
+            assertEquals("rendered", joined.block(TIMEOUT));
+            assertEquals("rendered", leader.get());
+            assertEquals(1, renders.get());
+            assertEquals("rendered", cache.getIfPresent(key));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedRenderIsNotCached() throws Exception {
+        var cache = cache(null, 1 << 20);
+        var key = PreviewCache.key(payload("map"), "");
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var executor = Executors.newSingleThreadExecutor();
+
+        try {
+            var leader = executor.submit(() -> cache.get(key, token(), new PreviewTimings("test"), () -> {
+                started.countDown();
+                await(release);
+
+                throw new IllegalStateException("Broken payload");
+            }));
+
+            started.await();
+
+            var joined = cache.get(key, token(), new PreviewTimings("test"), () -> "rendered");
+            release.countDown();
+
+            // Both the request that rendered and the one that joined it fail
+            assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, leader::get).getCause());
+            assertThrows(IllegalStateException.class, () -> joined.block(TIMEOUT));
+            assertNull(cache.getIfPresent(key));
+
+            // The next request renders again
+            assertEquals("rendered", cache.get(key, token(), new PreviewTimings("test"), () -> "rendered").block(TIMEOUT));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void oneRenderPerKeyAtATime() throws Exception {
+        // Nothing stays in memory, every request that misses the running render starts a new one
+        var cache = cache(null, 0);
+        var key = PreviewCache.key(payload("map"), "");
+        var active = new AtomicInteger();
+        var maxActive = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            var start = new CountDownLatch(1);
+            var futures = new ArrayList<Future<Void>>();
+
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    start.await();
+
+                    for (int round = 0; round < ROUNDS; round++) {
+                        var value = cache.get(key, token(), new PreviewTimings("test"), () -> {
+                            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                            LockSupport.parkNanos(20_000);
+                            active.decrementAndGet();
+
+                            return "rendered";
+                        }).block(TIMEOUT);
+
+                        assertEquals("rendered", value);
+                    }
+
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (var future : futures) {
+                future.get();
+            }
+
+            assertEquals(1, maxActive.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static PreviewCache<String> cache(Path folder) {
+        return cache(folder, 1 << 20);
+    }
+
+    private static PreviewCache<String> cache(Path folder, long maximumWeight) {
+        return new PreviewCache<>("test", maximumWeight, String::length, folder, CODEC, null, new SimpleMeterRegistry());
+    }
+
+    private static RenderToken token() {
+        return new RenderToken(System.nanoTime() + TIMEOUT.toNanos());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] payload(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,130 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import arc.math.geom.Point2;
+import arc.struct.Seq;
+import arc.struct.StringMap;
+import mindustry.content.Blocks;
+import mindustry.content.Items;
+import mindustry.game.Schematic;
+import mindustry.game.Schematic.Stile;
+import mindustry.game.Schematics;
+import mindustrytool.mindustrycontentparser.ContentTest;
+import mindustrytool.mindustrycontentparser.utils.Rasters;
+
+/**
+ * Parses and renders two different schematics on several threads at once,
+ * every result has to match the one rendered alone.
+ */
+public class SchematicServiceConcurrencyTest extends ContentTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 4;
+
+    @Autowired
+    private SchematicService schematicService;
+
+    @Test
+    public void concurrentRendersMatchSerialRenders() throws Exception {
+        byte[][] files = { write(conveyors()), write(bridges()) };
+        Result[] expected = { render(files[0]), render(files[1]) };
+
+        var executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            var start = new CountDownLatch(1);
+            var futures = new ArrayList<Future<Result>>();
+
+            for (int i = 0; i < THREADS * ROUNDS; i++) {
+                byte[] file = files[i % 2];
+
+                futures.add(executor.submit((Callable<Result>) () -> {
+                    start.await();
+                    return render(file);
+                }));
+            }
+
+            start.countDown();
+
+            for (int i = 0; i < futures.size(); i++) {
+                var result = futures.get(i).get();
+                var serial = expected[i % 2];
+
+                assertEquals(serial.tiles(), result.tiles(), "Parsed tiles of render " + i);
+                assertArrayEquals(serial.pixels(), result.pixels(), "Pixels of render " + i);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Result render(byte[] file) throws IOException {
+        Schematic schematic = schematicService.read(new ByteArrayInputStream(file), new PreviewTimings("test"));
+        BufferedImage image = schematicService.getSchematicImage(schematic, 32, new PreviewTimings("test"));
+
+        var tiles = schematic.tiles.map(tile -> tile.block.name + "@" + tile.x + "," + tile.y + ":" + tile.rotation + "=" + tile.config).toString();
+
+        return new Result(tiles, Rasters.data(Rasters.toIntArgb(image)).clone());
+    }
+
+    private static byte[] write(Schematic schematic) throws IOException {
+        var output = new ByteArrayOutputStream();
+        Schematics.write(schematic, output);
+
+        return output.toByteArray();
+    }
+
+    // Autotiled conveyors turning in every direction, with sorters holding item configs
+    private static Schematic conveyors() {
+        var tiles = new Seq<Stile>();
+
+        for (int y = 0; y < 12; y++) {
+            for (int x = 0; x < 12; x++) {
+                if ((x + y) % 5 == 0) {
+                    tiles.add(new Stile(Blocks.sorter, x, y, Items.copper, (byte) 0));
+                } else {
+                    tiles.add(new Stile(y % 2 == 0 ? Blocks.conveyor : Blocks.titaniumConveyor, x, y, null, (byte) ((x / 3 + y) % 4)));
+                }
+            }
+        }
+
+        return new Schematic(tiles, new StringMap(), 12, 12);
+    }
+
+    // Bridges linked by point configs, routers and walls between them
+    private static Schematic bridges() {
+        var tiles = new Seq<Stile>();
+
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 16; x++) {
+                if (x % 4 == 0) {
+                    tiles.add(new Stile(Blocks.itemBridge, x, y, x < 12 ? new Point2(3, 0) : null, (byte) 0));
+                } else if (y % 3 == 0) {
+                    tiles.add(new Stile(Blocks.router, x, y, null, (byte) 0));
+                } else {
+                    tiles.add(new Stile(Blocks.copperWall, x, y, null, (byte) 0));
+                }
+            }
+        }
+
+        return new Schematic(tiles, new StringMap(), 16, 10);
+    }
+
+    private record Result(String tiles, int[] pixels) {
+    }
+}
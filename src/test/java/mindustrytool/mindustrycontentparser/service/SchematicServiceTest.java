@@ -0,0 +1,133 @@
+package mindustrytool.mindustrycontentparser.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import arc.math.geom.Point2;
+import arc.struct.Seq;
+import arc.struct.StringMap;
+import mindustry.content.Blocks;
+import mindustry.content.Items;
+import mindustry.game.Schematic;
+import mindustry.game.Schematic.Stile;
+import mindustrytool.mindustrycontentparser.ContentTest;
+import mindustrytool.mindustrycontentparser.types.request.SchematicPreviewRequest;
+import mindustrytool.mindustrycontentparser.utils.Rasters;
+
+/**
+ * Schematic renders compared across the render paths, with a schematic built
+ * in memory.
+ */
+public class SchematicServiceTest extends ContentTest {
+
+    // Blending sprites straight onto the floor rounds differently from
+    // blending them onto a clear layer that is composited afterwards
+    private static final int TOLERANCE = 4;
+
+    private static final int TILE_SIZE = 128;
+
+    @Autowired
+    private SchematicService schematicService;
+
+    @Test
+    public void tiledRenderMatchesSingleImage() {
+        var schematic = mixed();
+        int pixels = 32;
+        long canvas = (2 + Math.max(Math.max(schematic.width, schematic.height), 16)) * pixels;
+
+        // Room for the canvas and one tile, not for the single image as well
+        long budget = (canvas * canvas + TILE_SIZE * TILE_SIZE) * Integer.BYTES;
+
+        BufferedImage single = schematicService.getSchematicImage(schematic, pixels, Long.MAX_VALUE, TILE_SIZE, new PreviewTimings("test"));
+        BufferedImage tiled = schematicService.getSchematicImage(schematic, pixels, budget, TILE_SIZE, new PreviewTimings("test"));
+
+        assertEquals(canvas, single.getWidth());
+        assertEquals(single.getWidth(), tiled.getWidth());
+        assertEquals(single.getHeight(), tiled.getHeight());
+
+        int[] expected = Rasters.data(Rasters.toIntArgb(single));
+        int[] actual = Rasters.data(Rasters.toIntArgb(tiled));
+
+        for (int i = 0; i < expected.length; i++) {
+            int difference = channelDifference(expected[i], actual[i]);
+
+            assertTrue(difference <= TOLERANCE, "Pixel " + (i % single.getWidth()) + ", " + (i / single.getWidth()) + " differs by " + difference);
+        }
+    }
+
+    @Test
+    public void scaleIsPixelsPerTile() {
+        assertEquals(5, SchematicService.getTilePixels(mixed(), request(5, 999)));
+        assertEquals(32, SchematicService.getTilePixels(mixed(), request(null, null)));
+    }
+
+    @Test
+    public void sizeIsFittedByWholePixelsPerTile() {
+        // 12x12 is padded to 16 tiles plus a one tile margin on each side
+        assertEquals(10, SchematicService.getTilePixels(mixed(), request(null, 180)));
+        assertEquals(10, SchematicService.getTilePixels(mixed(), request(null, 197)));
+
+        // At least one pixel and at most the sprites' own 32 per tile
+        assertEquals(1, SchematicService.getTilePixels(mixed(), request(null, 10)));
+        assertEquals(32, SchematicService.getTilePixels(mixed(), request(null, 10000)));
+
+        var wide = new Schematic(new Seq<>(), new StringMap(), 40, 20);
+        assertEquals(5, SchematicService.getTilePixels(wide, request(null, 210)));
+    }
+
+    @Test
+    public void imageIsRenderedAtTheFittedSize() {
+        var schematic = mixed();
+        var image = schematicService.getSchematicImage(schematic, SchematicService.getTilePixels(schematic, request(null, 180)), new PreviewTimings("test"));
+
+        assertEquals(180, image.getWidth());
+        assertEquals(180, image.getHeight());
+    }
+
+    private static SchematicPreviewRequest request(Integer scale, Integer size) {
+        var request = new SchematicPreviewRequest();
+
+        request.setScale(scale);
+        request.setSize(size);
+
+        return request;
+    }
+
+    private static int channelDifference(int a, int b) {
+        int max = 0;
+
+        for (int shift = 0; shift < 32; shift += 8) {
+            max = Math.max(max, Math.abs(((a >>> shift) & 0xff) - ((b >>> shift) & 0xff)));
+        }
+
+        return max;
+    }
+
+    // Conveyors, sorters, bridges linked across tile edges and 2x2 walls
+    private static Schematic mixed() {
+        var tiles = new Seq<Stile>();
+
+        for (int y = 0; y < 12; y++) {
+            for (int x = 0; x < 12; x++) {
+                if (y >= 8) {
+                    if (x % 2 == 0 && y % 2 == 0) {
+                        tiles.add(new Stile(Blocks.titaniumWallLarge, x, y, null, (byte) 0));
+                    }
+                } else if (x % 4 == 0) {
+                    tiles.add(new Stile(Blocks.itemBridge, x, y, x < 8 ? new Point2(3, 0) : null, (byte) 0));
+                } else if ((x + y) % 5 == 0) {
+                    tiles.add(new Stile(Blocks.sorter, x, y, Items.copper, (byte) 0));
+                } else {
+                    tiles.add(new Stile(Blocks.conveyor, x, y, null, (byte) ((x / 3 + y) % 4)));
+                }
+            }
+        }
+
+        return new Schematic(tiles, new StringMap(), 12, 12);
+    }
+}
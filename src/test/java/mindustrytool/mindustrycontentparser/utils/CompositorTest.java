@@ -0,0 +1,116 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Draws the same tinted sprite through Compositor.blit and through
+ * Graphics2D.drawImage the way DrawBatch does, both rasters have to agree
+ * within one step per channel.
+ */
+public class CompositorTest {
+
+    private static final int[] ROTATIONS = { 0, 90, 180, 270 };
+    private static final int[] SCALES = { 1, 2, 4 };
+    private static final float[] OFFSETS = { 0f, 0.25f, 0.5f, 0.75f };
+
+    @Test
+    void straightSpriteMatchesGraphics2D() {
+        assertParity(BufferedImage.TYPE_INT_ARGB);
+    }
+
+    @Test
+    void premultipliedSpriteMatchesGraphics2D() {
+        assertParity(BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    private static void assertParity(int type) {
+        BufferedImage sprite = Rasters.tint(sprite(), 0xc08040e0);
+
+        if (type == BufferedImage.TYPE_INT_ARGB_PRE) {
+            BufferedImage premultiplied = new BufferedImage(sprite.getWidth(), sprite.getHeight(), type);
+            premultiplied.createGraphics().drawImage(sprite, 0, 0, null);
+            sprite = premultiplied;
+        }
+
+        for (int rotation : ROTATIONS) {
+            for (int scale : SCALES) {
+                for (float offset : OFFSETS) {
+                    float x = 20 + offset, y = 17 + offset;
+                    float width = sprite.getWidth() * scale, height = sprite.getHeight() * scale;
+                    String draw = "rotation " + rotation + ", scale " + scale + ", offset " + offset;
+
+                    BufferedImage expected = background();
+                    Graphics2D graphics = expected.createGraphics();
+                    AffineTransform transform = new AffineTransform();
+                    transform.setToTranslation(x, y);
+                    transform.rotate(-rotation * (float) (Math.PI / 180), width / 2, height / 2);
+                    graphics.setTransform(transform);
+                    graphics.drawImage(sprite, 0, 0, (int) Math.ceil(width), (int) Math.ceil(height), null);
+                    graphics.dispose();
+
+                    BufferedImage actual = background();
+                    boolean drawn = Compositor.blit(actual, sprite, x, y, width / 2, height / 2, width, height, rotation);
+
+                    // Only half pixel ties of scaled or rotated draws may be left to Graphics2D
+                    if (!drawn) {
+                        assertTrue(offset == 0.5f && (rotation != 0 || scale != 1), "Not drawn: " + draw);
+                        continue;
+                    }
+
+                    assertClose(expected, actual, draw);
+                }
+            }
+        }
+    }
+
+    private static void assertClose(BufferedImage expected, BufferedImage actual, String draw) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int e = expected.getRGB(x, y), a = actual.getRGB(x, y);
+
+                for (int shift = 0; shift < 32; shift += 8) {
+                    if (Math.abs(((e >>> shift) & 0xff) - ((a >>> shift) & 0xff)) > 1) {
+                        fail(String.format("%s: pixel (%d, %d) is %08x, Graphics2D drew %08x", draw, x, y, a, e));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Odd-sized sprite with opaque, translucent and empty pixels */
+    private static BufferedImage sprite() {
+        Random random = new Random(7);
+        BufferedImage sprite = new BufferedImage(7, 5, BufferedImage.TYPE_INT_ARGB);
+
+        for (int y = 0; y < sprite.getHeight(); y++) {
+            for (int x = 0; x < sprite.getWidth(); x++) {
+                int alpha = random.nextInt(4) == 0 ? 0 : random.nextBoolean() ? 255 : random.nextInt(256);
+                sprite.setRGB(x, y, (alpha << 24) | random.nextInt(0x1000000));
+            }
+        }
+
+        return sprite;
+    }
+
+    /** Destination with transparent, translucent and opaque pixels */
+    private static BufferedImage background() {
+        BufferedImage background = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+
+        for (int y = 0; y < background.getHeight(); y++) {
+            for (int x = 0; x < background.getWidth(); x++) {
+                int alpha = (x + y) % 3 == 0 ? 0 : (x * y) % 5 == 0 ? 255 : 0x40 + (x * 3) % 160;
+                background.setRGB(x, y, (alpha << 24) | (x * 4) << 16 | (y * 4) << 8 | 0x33);
+            }
+        }
+
+        return background;
+    }
+}
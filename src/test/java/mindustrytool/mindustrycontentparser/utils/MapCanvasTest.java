@@ -0,0 +1,100 @@
+package mindustrytool.mindustrycontentparser.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tiles and blocks drawn at full resolution and averaged below one pixel per
+ * tile, against pixels worked out by hand. y points up, the image's does not.
+ */
+public class MapCanvasTest {
+
+    private static final int RED = 0xffff0000, BLUE = 0xff0000ff;
+
+    @Test
+    void tileCoversScalePixels() {
+        // 3x2 tiles at 2 pixels per tile plus the one tile margin
+        var canvas = new MapCanvas(3, 2, 2, 1);
+        canvas.fillTile(0, 0, RED);
+        canvas.fillTile(2, 1, BLUE);
+
+        assertEquals(8, canvas.image.getWidth());
+        assertEquals(6, canvas.image.getHeight());
+
+        assertFilled(canvas, 0, 3, 2, 2, RED);
+        assertFilled(canvas, 4, 1, 2, 2, BLUE);
+        assertEquals(0, canvas.image.getRGB(2, 3));
+    }
+
+    @Test
+    void blockIsCenteredOnItsTile() {
+        var canvas = new MapCanvas(4, 4, 2, 1);
+        canvas.fillBlock(1, 1, 3, RED);
+
+        // Tiles 0 to 2 on both axes
+        assertFilled(canvas, 0, 3, 6, 6, RED);
+        assertEquals(0, canvas.image.getRGB(6, 8));
+        assertEquals(0, canvas.image.getRGB(0, 2));
+    }
+
+    @Test
+    void stepAveragesTiles() {
+        // 4x4 tiles, every pixel averages 2x2 of them
+        var canvas = new MapCanvas(4, 4, 1, 2);
+
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                canvas.fillTile(x, y, x < 2 && y < 2 ? (x == y ? RED : 0) : BLUE);
+            }
+        }
+
+        canvas.flush();
+
+        assertEquals(2, canvas.image.getWidth());
+        assertEquals(2, canvas.image.getHeight());
+
+        // Two opaque red and two clear tiles, the color stays red at half alpha
+        assertEquals(0x7fff0000, canvas.image.getRGB(0, 1));
+        assertEquals(BLUE, canvas.image.getRGB(1, 1));
+        assertEquals(BLUE, canvas.image.getRGB(0, 0));
+    }
+
+    @Test
+    void stepBlockCoversEveryPixelItTouches() {
+        var canvas = new MapCanvas(6, 6, 1, 2);
+
+        // Tiles 2 to 4 span pixels 1 and 2
+        canvas.fillBlock(3, 3, 3, RED);
+
+        assertFilled(canvas, 1, 0, 2, 2, RED);
+        assertEquals(0, canvas.image.getRGB(0, 0));
+        assertEquals(0, canvas.image.getRGB(1, 2));
+    }
+
+    @Test
+    void stepBlockPastTheEdgeRoundsDown() {
+        var canvas = new MapCanvas(4, 4, 1, 2);
+
+        // Entirely left of and below the map, truncating toward zero would land it on pixel 0
+        canvas.fillBlock(-1, 0, 1, RED);
+        canvas.fillBlock(0, -1, 1, RED);
+
+        assertFilled(canvas, 0, 0, 2, 2, 0);
+
+        // Hanging over the bottom left corner, only the part on the map is drawn
+        canvas.fillBlock(0, 0, 3, BLUE);
+
+        assertEquals(BLUE, canvas.image.getRGB(0, 1));
+        assertEquals(0, canvas.image.getRGB(1, 1));
+        assertEquals(0, canvas.image.getRGB(0, 0));
+    }
+
+    private static void assertFilled(MapCanvas canvas, int left, int top, int width, int height, int argb) {
+        for (int y = top; y < top + height; y++) {
+            for (int x = left; x < left + width; x++) {
+                assertEquals(argb, canvas.image.getRGB(x, y), "Pixel " + x + ", " + y);
+            }
+        }
+    }
+}